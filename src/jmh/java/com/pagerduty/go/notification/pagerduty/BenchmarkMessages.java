@@ -0,0 +1,93 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.squareup.pagerduty.incidents.FakePagerDuty;
+import com.squareup.pagerduty.incidents.NotifyResult;
+import com.squareup.pagerduty.incidents.PagerDuty;
+import com.squareup.pagerduty.incidents.Resolution;
+import com.squareup.pagerduty.incidents.Trigger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Payloads and stubbed collaborators shared by the benchmarks.
+ */
+final class BenchmarkMessages {
+    static final String CONFIGURED_PIPELINE = "Pipeline_1";
+
+    private BenchmarkMessages() {
+    }
+
+    static String fixture(String filename) throws IOException {
+        try (InputStream in = BenchmarkMessages.class.getResourceAsStream("/" + filename)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + filename);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A stage-status body with the given number of jobs.
+     */
+    static String wideStage(String pipeline, String state, String result, int jobCount) {
+        StringBuilder json = new StringBuilder(256 + jobCount * 220);
+        json.append("{\"pipeline\": {\"name\": \"").append(pipeline).append("\", \"counter\": \"1\", \"group\": \"Benchmark_Group\", ")
+                .append("\"stage\": {\"name\": \"Compile\", \"counter\": \"1\", \"approval-type\": \"success\", \"approved-by\": \"changes\", ")
+                .append("\"state\": \"").append(state).append("\", \"result\": \"").append(result).append("\", ")
+                .append("\"create-time\": \"2015-09-01T10:00:00.000Z\", \"last-transition-time\": \"2015-09-01T10:05:00.000Z\", \"jobs\": [");
+        for (int i = 0; i < jobCount; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"name\": \"job-").append(i).append("\", ")
+                    .append("\"schedule-time\": \"2015-09-01T10:00:00.000Z\", \"complete-time\": \"2015-09-01T10:05:00.000Z\", ")
+                    .append("\"state\": \"Completed\", \"result\": \"").append(result).append("\", \"agent-uuid\": \"agent-").append(i % 16).append("\"}");
+        }
+        json.append("]}}}");
+        return json.toString();
+    }
+
+    // The same runs are replayed over and over, so they mustn't be taken for late notifications
+    static Config handlerConfig() {
+        return ConfigFactory.parseString("pagerduty { pipeline_api_keys { " + CONFIGURED_PIPELINE + " = BENCHMARKKEY }, incident_store { type = memory }, rate_limit.per_second = 0, reject_stale_events = false }")
+                .withFallback(ConfigFactory.load());
+    }
+
+    /**
+     * A handler whose PagerDuty calls return immediately.
+     */
+    static PagerDutyHandler stubbedHandler() {
+        final PagerDuty stub = new StubPagerDuty();
+        return new PagerDutyHandler(handlerConfig()) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return stub;
+            }
+        };
+    }
+
+    private static class StubPagerDuty extends PagerDuty {
+        private final NotifyResult result = new FakePagerDuty().notify(new Trigger.Builder("benchmark").build());
+
+        @Override
+        public NotifyResult notify(Trigger trigger) {
+            return result;
+        }
+
+        @Override
+        public NotifyResult notify(Resolution resolution) {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PagerDutyHandler decision path with PagerDuty calls stubbed out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandlerBenchmark {
+    private PagerDutyHandler handler;
+    private GoNotificationMessage failed;
+    private GoNotificationMessage passed;
+    private GoNotificationMessage failedElsewhere;
+    private GoNotificationMessage unconfigured;
+
+    @Setup
+    public void setUp() throws Exception {
+        handler = BenchmarkMessages.stubbedHandler();
+        failed = GoNotificationMessage.parse(BenchmarkMessages.fixture("goMessageFailure1.json"));
+        passed = GoNotificationMessage.parse(BenchmarkMessages.fixture("goMessagePassed1.json"));
+        failedElsewhere = GoNotificationMessage.parse(BenchmarkMessages.wideStage(BenchmarkMessages.CONFIGURED_PIPELINE, "Failed", "Failed", 1)
+                .replace("\"Compile\"", "\"AlreadyFailing\""));
+        unconfigured = GoNotificationMessage.parse(BenchmarkMessages.fixture("goMessageFailure2.json"));
+
+        // Leaves an incident open for the repeated failure benchmark
+        handler.handle(failedElsewhere);
+    }
+
+    @Benchmark
+    public void triggerThenResolve() throws Exception {
+        handler.handle(failed);
+        handler.handle(passed);
+    }
+
+    @Benchmark
+    public void repeatedFailure() throws Exception {
+        handler.handle(failedElsewhere);
+    }
+
+    @Benchmark
+    public void unconfiguredPipeline() throws Exception {
+        handler.handle(unconfigured);
+    }
+}
@@ -0,0 +1,80 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reopening the journal incident store after a restart, with part of its state still in the journal tail.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IncidentStoreRecoveryBenchmark {
+    private static final int COMPACT_AFTER = 10000;
+
+    @Param({"10000", "100000"})
+    public int incidents;
+
+    private File directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("incident-store-benchmark").toFile();
+        BoundedIncidentStore store = open();
+        for (int i = 0; i < incidents; i++) {
+            store.put("Pipeline_" + i + "-Compile", "incident-" + i);
+        }
+        for (int i = 0; i < COMPACT_AFTER / 2; i++) {
+            store.remove("Pipeline_" + i + "-Compile");
+        }
+        store.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        BoundedIncidentStore store = open();
+        try {
+            return store.size();
+        } finally {
+            store.close();
+        }
+    }
+
+    private BoundedIncidentStore open() throws IOException {
+        return new BoundedIncidentStore(new JournalIncidentLog(directory, COMPACT_AFTER), Integer.MAX_VALUE, 0,
+                new BoundedIncidentStore.EvictionListener() {
+                    @Override
+                    public void evicted(String pipelineStage, String incidentKey, String pipelineName, String serviceKey) {
+                    }
+                });
+    }
+}
@@ -0,0 +1,87 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of stage-status bodies, from the test fixtures and from synthetic stages of increasing width.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageParseBenchmark {
+    private static final Gson GSON = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create();
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+        @Param({"goMessageFailure1.json", "goMessageFailure2.json", "goMessageFailure3.json", "goMessagePassed1.json", "goMessagePassed3.json"})
+        public String fixture;
+
+        String body;
+
+        @Setup
+        public void setUp() throws IOException {
+            body = BenchmarkMessages.fixture(fixture);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class WideStage {
+        @Param({"1", "100", "1000"})
+        public int jobs;
+
+        String body;
+
+        @Setup
+        public void setUp() {
+            body = BenchmarkMessages.wideStage(BenchmarkMessages.CONFIGURED_PIPELINE, "Failed", "Failed", jobs);
+        }
+    }
+
+    @Benchmark
+    public GoNotificationMessage parseFixture(Fixture fixture) throws IOException {
+        return GoNotificationMessage.parse(fixture.body);
+    }
+
+    @Benchmark
+    public GoNotificationMessage bindFixture(Fixture fixture) {
+        return GSON.fromJson(fixture.body, GoNotificationMessage.class);
+    }
+
+    @Benchmark
+    public GoNotificationMessage parseWideStage(WideStage stage) throws IOException {
+        return GoNotificationMessage.parse(stage.body);
+    }
+
+    @Benchmark
+    public void parseWideStageAndReadJobs(WideStage stage, Blackhole blackhole) throws IOException {
+        GoNotificationMessage message = GoNotificationMessage.parse(stage.body);
+        for (String jobName : message.getJobNames()) {
+            blackhole.consume(message.getJobResult(jobName));
+            blackhole.consume(message.getJobScheduleTime(jobName));
+        }
+    }
+
+    @Benchmark
+    public GoNotificationMessage bindWideStage(WideStage stage) {
+        return GSON.fromJson(stage.body, GoNotificationMessage.class);
+    }
+}
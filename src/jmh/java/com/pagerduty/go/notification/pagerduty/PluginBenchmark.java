@@ -0,0 +1,65 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GoNotificationPlugin.handle end to end, from the request body to the rendered response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PluginBenchmark {
+    private GoNotificationPlugin plugin;
+    private DefaultGoPluginApiRequest failed;
+    private DefaultGoPluginApiRequest passed;
+    private DefaultGoPluginApiRequest unconfigured;
+    private DefaultGoPluginApiRequest notificationsInterestedIn;
+
+    @Setup
+    public void setUp() throws Exception {
+        plugin = new GoNotificationPlugin(BenchmarkMessages.stubbedHandler(), null);
+        failed = stageStatus(BenchmarkMessages.fixture("goMessageFailure1.json"));
+        passed = stageStatus(BenchmarkMessages.fixture("goMessagePassed1.json"));
+        unconfigured = stageStatus(BenchmarkMessages.fixture("goMessageFailure2.json"));
+        notificationsInterestedIn = new DefaultGoPluginApiRequest("notification", "1.0", "notifications-interested-in");
+    }
+
+    private static DefaultGoPluginApiRequest stageStatus(String body) {
+        DefaultGoPluginApiRequest request = new DefaultGoPluginApiRequest("notification", "1.0", "stage-status");
+        request.setRequestBody(body);
+        return request;
+    }
+
+    @Benchmark
+    public void stageFailedThenPassed(Blackhole blackhole) throws Exception {
+        blackhole.consume(plugin.handle(failed).responseBody());
+        blackhole.consume(plugin.handle(passed).responseBody());
+    }
+
+    @Benchmark
+    public String stageUnconfiguredPipeline() throws Exception {
+        return plugin.handle(unconfigured).responseBody();
+    }
+
+    @Benchmark
+    public GoPluginApiResponse notificationsInterestedIn() throws Exception {
+        return plugin.handle(notificationsInterestedIn);
+    }
+}
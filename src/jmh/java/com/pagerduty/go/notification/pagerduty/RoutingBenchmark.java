@@ -0,0 +1,69 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing lookups against rule sets of increasing size, for pipelines already seen and for new ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int rules;
+
+    private RouteMatcher matcher;
+    private String pipelineName;
+    private int uncached;
+
+    @Setup
+    public void setUp() {
+        List<RouteMatcher.Rule> ruleList = new ArrayList<>(rules);
+        for (int i = 0; i < rules; i++) {
+            Route route = new Route("SERVICEKEY" + i, Collections.singleton("Failed"));
+            switch (i % 3) {
+                case 0:
+                    ruleList.add(RouteMatcher.Rule.glob("team-" + i + "-*", null, "Deploy*", route));
+                    break;
+                case 1:
+                    ruleList.add(RouteMatcher.Rule.glob("service-" + i, "Group_" + i, null, route));
+                    break;
+                default:
+                    ruleList.add(RouteMatcher.Rule.glob("app-" + i + "-?", null, null, route));
+                    break;
+            }
+        }
+        ruleList.add(RouteMatcher.Rule.regex("release-[0-9]+", null, null, new Route("RELEASEKEY", Collections.singleton("Failed"))));
+        matcher = new RouteMatcher(ruleList);
+        pipelineName = "team-" + (rules / 2 / 3 * 3) + "-api";
+    }
+
+    @Benchmark
+    public Route cachedPipeline() {
+        return matcher.match(pipelineName, "Group", "DeployProd");
+    }
+
+    @Benchmark
+    public Route newPipeline() {
+        // Distinct names bypass the per-pipeline cache
+        return matcher.match("app-" + (++uncached % rules) + "-x", "Group", "Build");
+    }
+}
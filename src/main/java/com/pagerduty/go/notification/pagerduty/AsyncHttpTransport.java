@@ -0,0 +1,207 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.Gson;
+import com.typesafe.config.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Posts events to the PagerDuty Events API from a small shared pool of threads, so the caller
+ * never waits on PagerDuty.
+ * <p>
+ * Each service key has a lane that sends its events one at a time, in order, on whichever pool
+ * thread is free, and idle lanes hold no thread. Connections are reused between events through
+ * the JDK's keep-alive cache.
+ */
+public class AsyncHttpTransport implements PagerDutyTransport {
+    static final String EVENTS_PATH = "/generic/2010-04-15/create_event.json";
+    private static final Gson GSON = new Gson();
+
+    private final URL eventsUrl;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final boolean keepAlive;
+    private final long shutdownTimeoutMs;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    public AsyncHttpTransport(String baseUrl, int connectTimeoutMs, int readTimeoutMs, boolean keepAlive, int threads, long shutdownTimeoutMs)
+            throws IOException {
+        this.eventsUrl = new URL(baseUrl.replaceAll("/+$", "") + EVENTS_PATH);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.keepAlive = keepAlive;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pagerduty-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static AsyncHttpTransport fromConfig(Config config) throws IOException {
+        return new AsyncHttpTransport(
+                config.getString("pagerduty.http.base_url"),
+                (int) config.getDuration("pagerduty.http.connect_timeout", TimeUnit.MILLISECONDS),
+                (int) config.getDuration("pagerduty.http.read_timeout", TimeUnit.MILLISECONDS),
+                config.getBoolean("pagerduty.http.keep_alive"),
+                config.getInt("pagerduty.http.async_threads"),
+                config.getDuration("pagerduty.dispatch.shutdown_timeout", TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void send(Delivery delivery, Callback callback) {
+        Lane lane = lanes.get(delivery.serviceKey());
+        if (lane == null) {
+            Lane created = new Lane();
+            lane = lanes.putIfAbsent(delivery.serviceKey(), created);
+            if (lane == null) {
+                lane = created;
+            }
+        }
+        lane.submit(delivery, callback);
+    }
+
+    /**
+     * Waits for the events already handed over to be sent.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final Queue<Delivery> deliveries = new ArrayDeque<>();
+        private final Queue<Callback> callbacks = new ArrayDeque<>();
+        private boolean running;
+        // Set once an event failed, until the events queued behind it are drained
+        private Exception failure;
+
+        private void submit(Delivery delivery, Callback callback) {
+            synchronized (this) {
+                deliveries.add(delivery);
+                callbacks.add(callback);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Delivery delivery;
+                Callback callback;
+                Exception previousFailure;
+                synchronized (this) {
+                    delivery = deliveries.poll();
+                    callback = callbacks.poll();
+                    if (delivery == null) {
+                        running = false;
+                        failure = null;
+                        return;
+                    }
+                    previousFailure = failure;
+                }
+
+                if (previousFailure != null) {
+                    callback.failed(previousFailure);
+                    continue;
+                }
+                try {
+                    post(delivery);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (this) {
+                        failure = e;
+                    }
+                    callback.failed(e);
+                    continue;
+                }
+                callback.delivered();
+            }
+        }
+    }
+
+    private void post(Delivery delivery) throws IOException {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("service_key", delivery.serviceKey());
+        event.put("incident_key", delivery.incidentKey());
+        event.put("description", delivery.description());
+        if (delivery.type() == Delivery.Type.TRIGGER) {
+            event.put("event_type", "trigger");
+            event.put("client", "GoCD");
+            event.put("client_url", delivery.clientUrl());
+            if (!delivery.details().isEmpty()) {
+                event.put("details", delivery.details());
+            }
+        } else {
+            event.put("event_type", "resolve");
+        }
+        byte[] body = GSON.toJson(event).getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = (HttpURLConnection) eventsUrl.openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        if (!keepAlive) {
+            connection.setRequestProperty("Connection", "close");
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        int status = connection.getResponseCode();
+        // Reading the whole response lets the connection go back to the keep-alive cache
+        String response = readFully(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+        if (status / 100 != 2) {
+            throw new IOException(String.format("PagerDuty responded %d: %s", status, response));
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the open incidents in memory, limiting how many and for how long, so that the stages of
+ * deleted or renamed pipelines don't stay in it forever. Changes are recorded in an {@link IncidentLog}
+ * to survive restarts, which doesn't keep a copy of the incidents itself.
+ * <p>
+ * Incidents are kept in the order their stage was last looked up. An incident whose stage hasn't
+ * been looked up for the TTL, or the least recently looked up one once the store is full, is removed
+ * from the log and handed to the listener. Every call checks the eldest incidents, so expiry costs a
+ * constant amount of work per call on average.
+ */
+public class BoundedIncidentStore implements IncidentStore {
+    private static final Logger LOGGER = Logger.getLoggerFor(BoundedIncidentStore.class);
+
+    public interface EvictionListener {
+        /**
+         * Called without the store's lock held.
+         *
+         * @param pipelineName null, like the service key, for incidents recovered from before a restart
+         * @param serviceKey   the service key the incident was opened on
+         */
+        void evicted(String pipelineStage, String incidentKey, String pipelineName, String serviceKey);
+    }
+
+    private static class Entry implements Map.Entry<String, String> {
+        private final String pipelineStage;
+        private final String incidentKey;
+        private final String pipelineName;
+        private final String serviceKey;
+        private long lastAccess;
+
+        private Entry(String pipelineStage, String incidentKey, String pipelineName, String serviceKey, long lastAccess) {
+            this.pipelineStage = pipelineStage;
+            this.incidentKey = incidentKey;
+            this.pipelineName = pipelineName;
+            this.serviceKey = serviceKey;
+            this.lastAccess = lastAccess;
+        }
+
+        @Override
+        public String getKey() {
+            return pipelineStage;
+        }
+
+        @Override
+        public String getValue() {
+            return incidentKey;
+        }
+
+        @Override
+        public String setValue(String value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final IncidentLog log;
+    private final int maxSize;
+    private final long ttlMs;
+    private final EvictionListener listener;
+    // Least recently accessed first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param ttlMs how long an incident is kept after its stage was last looked up, 0 to keep it until resolved
+     */
+    public BoundedIncidentStore(IncidentLog log, int maxSize, long ttlMs, EvictionListener listener) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The incident store must hold at least one incident");
+        }
+        this.log = log;
+        this.maxSize = maxSize;
+        this.ttlMs = ttlMs;
+        this.listener = listener;
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> incident : log.recovered().entrySet()) {
+            entries.put(incident.getKey(), new Entry(incident.getKey(), incident.getValue(), null, null, now));
+        }
+    }
+
+    @Override
+    public String get(String pipelineStage) {
+        Entry entry;
+        List<Entry> evicted;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            entry = entries.get(pipelineStage);
+            if (entry != null) {
+                entry.lastAccess = now;
+            }
+            evicted = evict(now);
+        }
+        notifyEvicted(evicted);
+        return entry == null ? null : entry.incidentKey;
+    }
+
+    @Override
+    public void put(String pipelineStage, String incidentKey) throws IOException {
+        put(pipelineStage, incidentKey, null, null);
+    }
+
+    /**
+     * Remembers the incident along with what is needed to resolve it when it's evicted.
+     */
+    public void put(String pipelineStage, String incidentKey, String pipelineName, String serviceKey) throws IOException {
+        List<Entry> evicted;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            log.put(pipelineStage, incidentKey);
+            entries.put(pipelineStage, new Entry(pipelineStage, incidentKey, pipelineName, serviceKey, now));
+            compactIfNeeded();
+            evicted = evict(now);
+        }
+        notifyEvicted(evicted);
+    }
+
+    @Override
+    public synchronized void remove(String pipelineStage) throws IOException {
+        if (entries.remove(pipelineStage) != null) {
+            log.remove(pipelineStage);
+            compactIfNeeded();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized Map<String, String> incidents() {
+        Map<String, String> incidents = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            incidents.put(entry.pipelineStage, entry.incidentKey);
+        }
+        return incidents;
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        entries.clear();
+        log.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (log.needsCompaction()) {
+            log.compact(entries.values());
+        }
+    }
+
+    private List<Entry> evict(long now) {
+        List<Entry> evicted = null;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (entries.size() <= maxSize && (ttlMs <= 0 || now - entry.lastAccess < ttlMs)) {
+                break;
+            }
+            eldest.remove();
+            try {
+                log.remove(entry.pipelineStage);
+            } catch (IOException e) {
+                // Still evicted from memory, the log brings it back after a restart
+                LOGGER.error("Unable to remove the evicted incident of " + entry.pipelineStage + " from the incident store", e);
+            }
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(entry);
+        }
+        return evicted == null ? Collections.<Entry>emptyList() : evicted;
+    }
+
+    private void notifyEvicted(List<Entry> evicted) {
+        for (Entry entry : evicted) {
+            listener.evicted(entry.pipelineStage, entry.incidentKey, entry.pipelineName, entry.serviceKey);
+        }
+    }
+}
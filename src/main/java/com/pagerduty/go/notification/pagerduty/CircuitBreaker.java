@@ -0,0 +1,56 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tracks the health of one service key's endpoint. A failed call opens the circuit until a
+ * backoff delay has passed, after which a single call may probe the endpoint again. The delay
+ * doubles with every consecutive failure up to a maximum, and is jittered so that keys which
+ * failed together don't retry together.
+ * <p>
+ * Not thread-safe, callers guard it with their own lock.
+ */
+public class CircuitBreaker {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private int consecutiveFailures;
+    private long retryAt;
+
+    public CircuitBreaker(long initialBackoffMs, long maxBackoffMs) {
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    public State state(long now) {
+        if (consecutiveFailures == 0) {
+            return State.CLOSED;
+        }
+        return now >= retryAt ? State.HALF_OPEN : State.OPEN;
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures = 0;
+    }
+
+    public void recordFailure(long now) {
+        consecutiveFailures++;
+        retryAt = now + backoff(consecutiveFailures);
+    }
+
+    public int consecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return a delay between half and all of the exponential backoff for the failure count
+     */
+    long backoff(int failures) {
+        long delay = initialBackoffMs << Math.min(failures - 1, 30);
+        if (delay > maxBackoffMs || delay < 0) {
+            delay = maxBackoffMs;
+        }
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay - delay / 2 + 1);
+    }
+}
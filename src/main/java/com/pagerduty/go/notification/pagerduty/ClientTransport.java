@@ -0,0 +1,43 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.squareup.pagerduty.incidents.PagerDuty;
+import com.squareup.pagerduty.incidents.Resolution;
+import com.squareup.pagerduty.incidents.Trigger;
+
+/**
+ * Sends each event on the caller's thread with the handler's {@link PagerDuty} clients.
+ */
+public class ClientTransport implements PagerDutyTransport {
+    private final PagerDutyHandler handler;
+
+    public ClientTransport(PagerDutyHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void send(Delivery delivery, Callback callback) {
+        try {
+            PagerDuty pd = handler.pagerDuty(delivery.serviceKey());
+            if (delivery.type() == Delivery.Type.TRIGGER) {
+                pd.notify(new Trigger.Builder(delivery.description())
+                        .withIncidentKey(delivery.incidentKey())
+                        .client("GoCD")
+                        .clientUrl(delivery.clientUrl())
+                        .addDetails(delivery.details())
+                        .build());
+            } else {
+                pd.notify(new Resolution.Builder(delivery.incidentKey())
+                        .withDescription(delivery.description())
+                        .build());
+            }
+        } catch (RuntimeException e) {
+            callback.failed(e);
+            return;
+        }
+        callback.delivered();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,103 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Re-reads the configuration file when it changes and hands it to the handler. A file that fails
+ * to parse or validate is logged and the handler keeps its current configuration.
+ */
+public class ConfigWatcher implements Closeable {
+    private static final Logger LOGGER = Logger.getLoggerFor(ConfigWatcher.class);
+    // Editors often write a file in several steps, wait for them to settle before reading it
+    private static final long SETTLE_MS = 250;
+
+    private final File configFile;
+    private final Config defaultConfig;
+    private final PagerDutyHandler handler;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    public ConfigWatcher(File configFile, Config defaultConfig, PagerDutyHandler handler) throws IOException {
+        this.configFile = configFile.getAbsoluteFile();
+        this.defaultConfig = defaultConfig;
+        this.handler = handler;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.configFile.getParentFile().toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "pagerduty-notifier-config-watcher");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void watch() {
+        Path fileName = configFile.toPath().getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if (changed) {
+                    Thread.sleep(SETTLE_MS);
+                    // Events that arrived while settling are covered by this reload
+                    WatchKey pending = watchService.poll();
+                    if (pending != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * @return true if the configuration file was valid and applied
+     */
+    boolean reload() {
+        try {
+            Config config = ConfigFactory.parseFile(configFile).withFallback(defaultConfig).resolve();
+            handler.reload(config);
+            LOGGER.info(String.format("Reloaded configuration from %s", configFile));
+            return true;
+        } catch (Exception e) {
+            LOGGER.error(String.format("Invalid configuration in %s, keeping the previous configuration", configFile), e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
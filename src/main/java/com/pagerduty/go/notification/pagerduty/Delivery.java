@@ -0,0 +1,109 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A trigger or resolution to send to PagerDuty, kept in a form that can be written to the outbox.
+ */
+public final class Delivery {
+    public enum Type {TRIGGER, RESOLVE}
+
+    private final Type type;
+    private final String serviceKey;
+    private final String pipelineName;
+    private final String pipelineStage;
+    private final String incidentKey;
+    private final String description;
+    private final String clientUrl;
+    // Extra fields shown on the incident, empty for resolutions
+    private final Map<String, String> details;
+    // Assigned when the delivery is written to the outbox
+    private long sequence;
+    // The notification it was made for, only kept in memory for tracing
+    private volatile String jobName;
+
+    Delivery(Type type, String serviceKey, String pipelineName, String pipelineStage, String incidentKey, String description, String clientUrl) {
+        this(type, serviceKey, pipelineName, pipelineStage, incidentKey, description, clientUrl, Collections.<String, String>emptyMap());
+    }
+
+    Delivery(Type type, String serviceKey, String pipelineName, String pipelineStage, String incidentKey, String description, String clientUrl,
+             Map<String, String> details) {
+        this.type = type;
+        this.serviceKey = serviceKey;
+        this.pipelineName = pipelineName;
+        this.pipelineStage = pipelineStage;
+        this.incidentKey = incidentKey;
+        this.description = description;
+        this.clientUrl = clientUrl;
+        this.details = details.isEmpty() ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(details));
+    }
+
+    public static Delivery trigger(String serviceKey, String pipelineName, String pipelineStage, String incidentKey, String description, String clientUrl) {
+        return new Delivery(Type.TRIGGER, serviceKey, pipelineName, pipelineStage, incidentKey, description, clientUrl);
+    }
+
+    public static Delivery trigger(String serviceKey, String pipelineName, String pipelineStage, String incidentKey, String description, String clientUrl,
+                                   Map<String, String> details) {
+        return new Delivery(Type.TRIGGER, serviceKey, pipelineName, pipelineStage, incidentKey, description, clientUrl, details);
+    }
+
+    public static Delivery resolve(String serviceKey, String pipelineName, String pipelineStage, String incidentKey, String description) {
+        return new Delivery(Type.RESOLVE, serviceKey, pipelineName, pipelineStage, incidentKey, description, null);
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public String serviceKey() {
+        return serviceKey;
+    }
+
+    public String pipelineName() {
+        return pipelineName;
+    }
+
+    public String pipelineStage() {
+        return pipelineStage;
+    }
+
+    public String incidentKey() {
+        return incidentKey;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    public String clientUrl() {
+        return clientUrl;
+    }
+
+    public Map<String, String> details() {
+        return details;
+    }
+
+    /**
+     * @return the fully qualified job name of the notification the delivery was made for, or its
+     * pipeline stage when that isn't known
+     */
+    String jobName() {
+        String name = jobName;
+        return name == null ? pipelineStage : name;
+    }
+
+    void jobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    void sequence(long sequence) {
+        this.sequence = sequence;
+    }
+}
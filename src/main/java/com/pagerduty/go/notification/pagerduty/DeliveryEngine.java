@@ -0,0 +1,557 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends triggers and resolutions to PagerDuty without losing them when PagerDuty is unavailable.
+ * <p>
+ * A delivery is sent straight away when its service key is healthy. When the call fails the key's
+ * circuit opens and the delivery goes to the outbox, as does every later delivery for that key
+ * so they stay in order. A background thread retries the oldest pending delivery of each key once
+ * its backoff has passed, and sends the rest in order as soon as one gets through.
+ * <p>
+ * Each key may also be rate limited, in which case deliveries beyond its budget wait in the outbox
+ * too and are sent as the budget refills, resolutions and first failures before repeats.
+ * <p>
+ * The deliveries of one notification for several service keys are sent side by side through a
+ * lane per key, so a slow service doesn't hold up the others, and waited for together.
+ */
+public class DeliveryEngine implements Closeable {
+    private static final Logger LOGGER = Logger.getLoggerFor(DeliveryEngine.class);
+
+    private final PagerDutyTransport transport;
+    private final Outbox outbox;
+    private final NotificationMetrics metrics;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long retryIntervalMs;
+    private final double ratePerSecond;
+    private final int rateBurst;
+    private final long fanOutTimeoutMs;
+    private final ConcurrentMap<String, KeyState> keys = new ConcurrentHashMap<>();
+    // Deliveries handed to the transport straight away and not yet acknowledged, over all keys. Guarded by
+    // countLock together with moving them to the outbox, so that none is counted twice or missed
+    private int sending;
+    // Deliveries held back or failed behind an in-flight call and not yet in the outbox, over all keys. Also
+    // guarded by countLock
+    private int heldBack;
+    private final Object countLock = new Object();
+    // Guards the retry thread, taken while a key is locked so it must not be the engine's own monitor
+    private final Object retryLock = new Object();
+    private ScheduledExecutorService retryExecutor;
+    // Runs the fan-out lanes, only started by the first delivery to several service keys at once
+    private final Object fanOutLock = new Object();
+    private ExecutorService fanOutExecutor;
+
+    private static class KeyState {
+        private final CircuitBreaker breaker;
+        // Null when the key isn't rate limited
+        private final TokenBucket rateLimit;
+        private final DeliveryQueue pending = new DeliveryQueue();
+        // Deliveries handed to the transport and not yet acknowledged. While there are any, deliveries that
+        // have to wait are held back, so that those failing in flight can go to the outbox ahead of them
+        private int inFlight;
+        private final List<Delivery> failedInFlight = new ArrayList<>();
+        private final List<Delivery> held = new ArrayList<>();
+        private final FanOutLane fanOut;
+
+        private KeyState(CircuitBreaker breaker, TokenBucket rateLimit, FanOutLane fanOut) {
+            this.breaker = breaker;
+            this.rateLimit = rateLimit;
+            this.fanOut = fanOut;
+        }
+
+        private boolean tryAcquire() {
+            return rateLimit == null || rateLimit.tryAcquire(System.nanoTime());
+        }
+    }
+
+    /**
+     * @param ratePerSecond sustained deliveries per second allowed for each service key, 0 for no limit
+     * @param rateBurst       deliveries a service key may make at once after being idle
+     * @param fanOutTimeoutMs how long a {@link Batch} is waited for
+     */
+    public DeliveryEngine(PagerDutyTransport transport, Outbox outbox, NotificationMetrics metrics,
+                          long initialBackoffMs, long maxBackoffMs, long retryIntervalMs, double ratePerSecond, int rateBurst,
+                          long fanOutTimeoutMs) {
+        this.transport = transport;
+        this.outbox = outbox;
+        this.metrics = metrics;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.retryIntervalMs = retryIntervalMs;
+        this.ratePerSecond = ratePerSecond;
+        this.rateBurst = rateBurst;
+        this.fanOutTimeoutMs = fanOutTimeoutMs;
+
+        for (Delivery delivery : outbox.pending()) {
+            keyState(delivery.serviceKey()).pending.add(delivery);
+        }
+        if (outbox.size() > 0) {
+            startRetrying();
+        }
+    }
+
+    public static DeliveryEngine fromConfig(PagerDutyTransport transport, Outbox outbox, NotificationMetrics metrics, Config config) {
+        return new DeliveryEngine(transport, outbox, metrics,
+                config.getDuration("pagerduty.delivery.initial_backoff", TimeUnit.MILLISECONDS),
+                config.getDuration("pagerduty.delivery.max_backoff", TimeUnit.MILLISECONDS),
+                config.getDuration("pagerduty.delivery.retry_interval", TimeUnit.MILLISECONDS),
+                config.getDouble("pagerduty.rate_limit.per_second"),
+                config.getInt("pagerduty.rate_limit.burst"),
+                config.getDuration("pagerduty.delivery.fan_out_timeout", TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Sends the delivery, or leaves it in the outbox for a retry. Whether the transport sends it
+     * before returning depends on the transport.
+     *
+     * @throws IOException if the delivery couldn't be written to the outbox
+     */
+    public void deliver(Delivery delivery) throws IOException {
+        deliver(delivery, null);
+    }
+
+    /**
+     * Delivers the events of one notification and waits until they are all sent or the fan-out timeout has passed.
+     *
+     * @return the events that failed or were still being sent by then, see {@link Batch#await()}
+     */
+    public List<String> deliverAll(List<Delivery> batch) {
+        return submit(batch).await();
+    }
+
+    /**
+     * Hands the events of one notification to the lanes of their service keys to be sent side by side, without
+     * waiting for them. Each key's events are sent in the order they were submitted.
+     *
+     * @return the outcome of the events, to wait for with {@link Batch#await()}
+     */
+    public Batch submit(List<Delivery> batch) {
+        Batch submitted = new Batch(batch.size(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fanOutTimeoutMs));
+        ExecutorService executor = fanOutExecutor();
+        for (Delivery delivery : batch) {
+            Receipt receipt = new Receipt(delivery, submitted.gathered);
+            submitted.receipts.add(receipt);
+            keyState(delivery.serviceKey()).fanOut.submit(receipt, executor);
+        }
+        return submitted;
+    }
+
+    /**
+     * The events of one notification on their way to PagerDuty.
+     */
+    public static class Batch {
+        private final CountDownLatch gathered;
+        private final long deadline;
+        private final List<Receipt> receipts = new ArrayList<>();
+
+        private Batch(int size, long deadline) {
+            this.gathered = new CountDownLatch(size);
+            this.deadline = deadline;
+        }
+
+        /**
+         * Waits until every event is sent or the fan-out timeout, counted from the submission, has passed.
+         *
+         * @return the events that failed or were still being sent by then, empty if none were. Events queued
+         * behind the rate limit or the key's pending deliveries aren't reported
+         */
+        public List<String> await() {
+            try {
+                gathered.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<String> problems = new ArrayList<>();
+            for (Receipt receipt : receipts) {
+                String problem = receipt.problem();
+                if (problem != null) {
+                    problems.add(problem);
+                }
+            }
+            return problems;
+        }
+    }
+
+    /**
+     * @param receipt completed with the outcome, or null
+     */
+    private void deliver(final Delivery delivery, final Receipt receipt) throws IOException {
+        final KeyState state = keyState(delivery.serviceKey());
+        synchronized (state) {
+            // Fail fast while the key is unhealthy, never overtake its pending deliveries and stay within its rate
+            boolean unhealthy = state.breaker.state(System.currentTimeMillis()) != CircuitBreaker.State.CLOSED;
+            if (!state.pending.isEmpty() || unhealthy || !state.tryAcquire()) {
+                if (state.inFlight > 0) {
+                    synchronized (countLock) {
+                        state.held.add(delivery);
+                        heldBack++;
+                    }
+                } else {
+                    enqueue(state, delivery);
+                }
+                if (receipt != null) {
+                    // Waiting for the rate limit or behind the key's pending deliveries is no failure
+                    receipt.complete(unhealthy ? String.format("Unable to send %s, PagerDuty can't be reached for now and it will be retried",
+                            describe(delivery)) : null);
+                }
+                return;
+            }
+            state.inFlight++;
+            synchronized (countLock) {
+                sending++;
+            }
+        }
+
+        final long start = System.nanoTime();
+        final TraceEvent.Span span = TraceEvent.PAGERDUTY_CALL.begin();
+        transport.send(delivery, new PagerDutyTransport.Callback() {
+            @Override
+            public void delivered() {
+                recordCall(delivery, span, start);
+                synchronized (state) {
+                    landed(state);
+                }
+                if (receipt != null) {
+                    receipt.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                recordFailedCall(delivery, span, start, e);
+                synchronized (state) {
+                    // Deliveries the transport failed without sending, behind this one, don't count again
+                    if (state.breaker.state(System.currentTimeMillis()) == CircuitBreaker.State.CLOSED) {
+                        state.breaker.recordFailure(System.currentTimeMillis());
+                    }
+                    synchronized (countLock) {
+                        state.failedInFlight.add(delivery);
+                        heldBack++;
+                    }
+                    landed(state);
+                }
+                if (receipt != null) {
+                    receipt.complete(String.format("Unable to send %s, it will be retried: %s", describe(delivery), e.getMessage()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Once nothing is in flight, queues the deliveries that failed ahead of those held back behind them.
+     * Called with the key locked.
+     */
+    private void landed(KeyState state) {
+        synchronized (countLock) {
+            sending--;
+            if (--state.inFlight == 0) {
+                queueWaiting(state);
+            }
+        }
+    }
+
+    private void queueWaiting(KeyState state) {
+        List<Delivery> waiting = new ArrayList<>(state.failedInFlight);
+        waiting.addAll(state.held);
+        state.failedInFlight.clear();
+        state.held.clear();
+        heldBack -= waiting.size();
+        for (Delivery delivery : waiting) {
+            try {
+                enqueue(state, delivery);
+            } catch (IOException spoolError) {
+                LOGGER.error(String.format("Unable to keep the %s of incident %s for a retry, it is lost", delivery.type(), delivery.incidentKey()), spoolError);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending deliveries of every key whose backoff has passed, as far as its rate allows.
+     */
+    synchronized void retryPending() {
+        for (KeyState state : keys.values()) {
+            while (true) {
+                Delivery delivery;
+                synchronized (state) {
+                    delivery = state.pending.peek();
+                    if (delivery == null || state.breaker.state(System.currentTimeMillis()) == CircuitBreaker.State.OPEN
+                            || !state.tryAcquire()) {
+                        break;
+                    }
+                }
+
+                boolean sent = sendAndWait(delivery);
+                synchronized (state) {
+                    if (!sent) {
+                        state.breaker.recordFailure(System.currentTimeMillis());
+                        break;
+                    }
+                    state.breaker.recordSuccess();
+                    state.pending.remove(delivery);
+                }
+                try {
+                    outbox.delivered(delivery);
+                } catch (IOException e) {
+                    LOGGER.error("Unable to remove a delivered event from the outbox, it will be sent again after a restart", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the deliveries PagerDuty hasn't acknowledged yet, in the outbox, on their way or held back behind
+     * those on their way
+     */
+    public int pendingCount() {
+        synchronized (countLock) {
+            return outbox.size() + sending + heldBack;
+        }
+    }
+
+    CircuitBreaker.State circuitState(String serviceKey) {
+        KeyState state = keys.get(serviceKey);
+        if (state == null) {
+            return CircuitBreaker.State.CLOSED;
+        }
+        synchronized (state) {
+            return state.breaker.state(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (fanOutLock) {
+            if (fanOutExecutor != null) {
+                // Let the lanes hand over what they were given
+                fanOutExecutor.shutdown();
+                try {
+                    fanOutExecutor.awaitTermination(fanOutTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        synchronized (retryLock) {
+            if (retryExecutor != null) {
+                retryExecutor.shutdownNow();
+            }
+        }
+        transport.close();
+        outbox.close();
+    }
+
+    private void enqueue(KeyState state, Delivery delivery) throws IOException {
+        outbox.add(delivery);
+        state.pending.add(delivery);
+        startRetrying();
+    }
+
+    /**
+     * Sends the delivery and waits for the outcome.
+     */
+    private boolean sendAndWait(Delivery delivery) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean delivered = new AtomicBoolean();
+        final long start = System.nanoTime();
+        final TraceEvent.Span span = TraceEvent.PAGERDUTY_CALL.begin();
+        final Delivery sent = delivery;
+        transport.send(delivery, new PagerDutyTransport.Callback() {
+            @Override
+            public void delivered() {
+                recordCall(sent, span, start);
+                delivered.set(true);
+                done.countDown();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                recordFailedCall(sent, span, start, e);
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return delivered.get();
+    }
+
+    private void recordCall(Delivery delivery, TraceEvent.Span span, long start) {
+        metrics.recordPagerDutyCall(System.nanoTime() - start);
+        if (span.isRecording()) {
+            traceCall(delivery, span, "delivered");
+        }
+    }
+
+    private void recordFailedCall(Delivery delivery, TraceEvent.Span span, long start, Exception e) {
+        metrics.recordPagerDutyCall(System.nanoTime() - start);
+        if (span.isRecording()) {
+            traceCall(delivery, span, "failed: " + e);
+        }
+        metrics.record(NotificationMetrics.Event.FAILED, delivery.pipelineName(), delivery.serviceKey());
+        LOGGER.warn(String.format("Unable to send %s of incident %s to PagerDuty, it will be retried", delivery.type(), delivery.incidentKey()), e);
+    }
+
+    private static String describe(Delivery delivery) {
+        return String.format("%s of %s to %s", delivery.type(), delivery.jobName(),
+                NotificationMetrics.maskServiceKey(delivery.serviceKey()));
+    }
+
+    private static void traceCall(Delivery delivery, TraceEvent.Span span, String outcome) {
+        span.commit(delivery.jobName(), delivery.type().name(), NotificationMetrics.maskServiceKey(delivery.serviceKey()),
+                delivery.incidentKey(), outcome);
+    }
+
+    private KeyState keyState(String serviceKey) {
+        KeyState state = keys.get(serviceKey);
+        if (state == null) {
+            KeyState created = new KeyState(new CircuitBreaker(initialBackoffMs, maxBackoffMs),
+                    ratePerSecond > 0 ? new TokenBucket(ratePerSecond, rateBurst, System.nanoTime()) : null, new FanOutLane());
+            state = keys.putIfAbsent(serviceKey, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private ExecutorService fanOutExecutor() {
+        synchronized (fanOutLock) {
+            if (fanOutExecutor == null) {
+                // Lanes only take a thread while they have deliveries, and a blocking transport keeps it for the call
+                fanOutExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "pagerduty-fan-out-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return fanOutExecutor;
+        }
+    }
+
+    // The retry thread only exists once something has failed
+    private void startRetrying() {
+        synchronized (retryLock) {
+            if (retryExecutor == null) {
+                retryExecutor = newRetryExecutor();
+            }
+        }
+    }
+
+    private ScheduledExecutorService newRetryExecutor() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pagerduty-outbox");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retryPending();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error retrying pending PagerDuty events", e);
+                }
+            }
+        }, retryIntervalMs, retryIntervalMs, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    /**
+     * The outcome of one delivery of a fan-out, completed once.
+     */
+    private static class Receipt {
+        private final Delivery delivery;
+        private final CountDownLatch gathered;
+        private volatile boolean done;
+        private volatile String problem;
+
+        private Receipt(Delivery delivery, CountDownLatch gathered) {
+            this.delivery = delivery;
+            this.gathered = gathered;
+        }
+
+        /**
+         * @param problem why the delivery didn't reach PagerDuty, null if it did
+         */
+        private void complete(String problem) {
+            this.problem = problem;
+            done = true;
+            gathered.countDown();
+        }
+
+        private String problem() {
+            return done ? problem : describe(delivery) + " was still being sent when the fan-out timed out";
+        }
+    }
+
+    /**
+     * Hands the fan-out deliveries of one service key to {@link #deliver} one at a time, in order.
+     */
+    private class FanOutLane implements Runnable {
+        private final Queue<Receipt> receipts = new ArrayDeque<>();
+        private boolean running;
+
+        private void submit(Receipt receipt, ExecutorService executor) {
+            synchronized (this) {
+                receipts.add(receipt);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Receipt receipt;
+                synchronized (this) {
+                    receipt = receipts.poll();
+                    if (receipt == null) {
+                        running = false;
+                        return;
+                    }
+                }
+
+                try {
+                    deliver(receipt.delivery, receipt);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error(String.format("Unable to keep the %s of incident %s for a retry, it is lost",
+                            receipt.delivery.type(), receipt.delivery.incidentKey()), e);
+                    receipt.complete(String.format("Unable to send %s, it is lost: %s", describe(receipt.delivery), e.getMessage()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pending deliveries of one service key, most useful first.
+ * <p>
+ * Resolutions and the first trigger of a pipeline stage are sent before repeat triggers, those of
+ * a stage that already has an event waiting because it failed again meanwhile. A resolution never
+ * overtakes the trigger of its own incident. Not thread-safe, callers guard it with their own lock.
+ */
+class DeliveryQueue {
+    private final Deque<Delivery> urgent = new ArrayDeque<>();
+    private final Deque<Delivery> repeats = new ArrayDeque<>();
+    // Waiting events per pipeline stage
+    private final Map<String, Integer> pendingStages = new HashMap<>();
+    // Incidents whose trigger waits among the repeats
+    private final Set<String> repeatIncidents = new HashSet<>();
+
+    void add(Delivery delivery) {
+        boolean stagePending = pendingStages.containsKey(delivery.pipelineStage());
+        Integer count = pendingStages.get(delivery.pipelineStage());
+        pendingStages.put(delivery.pipelineStage(), count == null ? 1 : count + 1);
+
+        if (delivery.type() == Delivery.Type.TRIGGER ? stagePending : repeatIncidents.contains(delivery.incidentKey())) {
+            if (delivery.type() == Delivery.Type.TRIGGER) {
+                repeatIncidents.add(delivery.incidentKey());
+            }
+            repeats.addLast(delivery);
+        } else {
+            urgent.addLast(delivery);
+        }
+    }
+
+    Delivery peek() {
+        Delivery delivery = urgent.peekFirst();
+        return delivery != null ? delivery : repeats.peekFirst();
+    }
+
+    /**
+     * Removes the delivery last returned by {@link #peek()}.
+     */
+    void remove(Delivery delivery) {
+        if (urgent.peekFirst() == delivery) {
+            urgent.removeFirst();
+        } else if (repeats.peekFirst() == delivery) {
+            repeats.removeFirst();
+            if (delivery.type() == Delivery.Type.TRIGGER) {
+                repeatIncidents.remove(delivery.incidentKey());
+            }
+        } else {
+            throw new IllegalStateException("Not the next delivery: " + delivery.incidentKey());
+        }
+
+        int count = pendingStages.get(delivery.pipelineStage());
+        if (count == 1) {
+            pendingStages.remove(delivery.pipelineStage());
+        } else {
+            pendingStages.put(delivery.pipelineStage(), count - 1);
+        }
+    }
+
+    boolean isEmpty() {
+        return urgent.isEmpty() && repeats.isEmpty();
+    }
+}
@@ -1,16 +1,21 @@
 package com.pagerduty.go.notification.pagerduty;
 
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.*;
 
 public class GoNotificationMessage {
 
+    private static final Gson GSON = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create();
+
     static class Pipeline {
         @SerializedName("name")
         private String name;
@@ -18,6 +23,9 @@ public class GoNotificationMessage {
         @SerializedName("counter")
         private String counter;
 
+        @SerializedName("group")
+        private String group;
+
         @SerializedName("stage")
         private Stage stage;
     }
@@ -68,6 +76,105 @@ public class GoNotificationMessage {
     @SerializedName("pipeline")
     private Pipeline pipeline;
 
+    // Request body the jobs are read from when they were skipped by parse()
+    private transient String body;
+
+    private transient Map<String, Job> jobIndex;
+
+    /**
+     * Reads a stage-status request body, pulling out the pipeline and stage fields and
+     * leaving the jobs to be read from the body if they are ever asked for.
+     */
+    public static GoNotificationMessage parse(String json) throws IOException {
+        GoNotificationMessage message = new GoNotificationMessage();
+        message.body = json;
+
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("pipeline".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                message.pipeline = readPipeline(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return message;
+    }
+
+    private static Pipeline readPipeline(JsonReader reader) throws IOException {
+        Pipeline pipeline = new Pipeline();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    pipeline.name = nextString(reader);
+                    break;
+                case "counter":
+                    pipeline.counter = nextString(reader);
+                    break;
+                case "group":
+                    pipeline.group = nextString(reader);
+                    break;
+                case "stage":
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        pipeline.stage = readStage(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return pipeline;
+    }
+
+    private static Stage readStage(JsonReader reader) throws IOException {
+        Stage stage = new Stage();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    stage.name = nextString(reader);
+                    break;
+                case "counter":
+                    stage.counter = nextString(reader);
+                    break;
+                case "state":
+                    stage.state = nextString(reader);
+                    break;
+                case "result":
+                    stage.result = nextString(reader);
+                    break;
+                case "create-time":
+                    stage.createTime = nextString(reader);
+                    break;
+                case "last-transition-time":
+                    stage.lastTransitionTime = nextString(reader);
+                    break;
+                default:
+                    // Including the jobs, which most notifications never look at
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return stage;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    public boolean hasPipelineAndStage() {
+        return pipeline != null && pipeline.name != null && pipeline.stage != null && pipeline.stage.name != null;
+    }
+
     public String fullyQualifiedJobName() {
         return pipeline.name + "/" + pipeline.counter + "/" + pipeline.stage.name + "/" + pipeline.stage.counter;
     }
@@ -80,6 +187,10 @@ public class GoNotificationMessage {
         return pipeline.counter;
     }
 
+    public String getPipelineGroup() {
+        return pipeline.group;
+    }
+
     public String getStageName() {
         return pipeline.stage.name;
     }
@@ -106,7 +217,7 @@ public class GoNotificationMessage {
 
     public List<String> getJobNames() {
         List<String> jobNames = new ArrayList<String>();
-        for (Job job : pipeline.stage.jobs) {
+        for (Job job : jobs()) {
             jobNames.add(job.name);
         }
         return jobNames;
@@ -114,39 +225,62 @@ public class GoNotificationMessage {
 
     public Date getJobScheduleTime(String jobName) {
         Job job = getJob(jobName);
-        return parseISO8601(job.scheduleTime);
+        return job == null ? null : parseISO8601(job.scheduleTime);
     }
 
     public Date getJobCompleteTime(String jobName) {
         Job job = getJob(jobName);
-        return parseISO8601(job.completeTime);
+        return job == null ? null : parseISO8601(job.completeTime);
     }
 
     public String getJobState(String jobName) {
         Job job = getJob(jobName);
-        return job.state;
+        return job == null ? null : job.state;
     }
 
     public String getJobResult(String jobName) {
         Job job = getJob(jobName);
-        return job.result;
+        return job == null ? null : job.result;
+    }
+
+    public String getJobAgentUuid(String jobName) {
+        Job job = getJob(jobName);
+        return job == null ? null : job.agentUuid;
+    }
+
+    private List<Job> jobs() {
+        if (pipeline.stage.jobs == null) {
+            List<Job> jobs = null;
+            if (body != null) {
+                GoNotificationMessage full = GSON.fromJson(body, GoNotificationMessage.class);
+                jobs = full.pipeline.stage.jobs;
+            }
+            pipeline.stage.jobs = jobs == null ? Collections.<Job>emptyList() : jobs;
+        }
+        return pipeline.stage.jobs;
     }
 
     private Job getJob(String jobName) {
-        for (Job job : pipeline.stage.jobs) {
-            if (jobName.equals(job.name)) {
-                return job;
+        if (jobIndex == null) {
+            Map<String, Job> index = new HashMap<>();
+            for (Job job : jobs()) {
+                // Keep the first of any jobs sharing a name
+                if (!index.containsKey(job.name)) {
+                    index.put(job.name, job);
+                }
             }
+            jobIndex = index;
         }
-        return null;
+        return jobIndex.get(jobName);
     }
 
     private Date parseISO8601(String date) {
-        DateFormat format = new SimpleDateFormat("yyyy-mm-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        if (date == null) {
+            return null;
+        }
         try {
-            return format.parse(date);
-        } catch (ParseException e) {
+            return new Date(Iso8601.parse(date));
+        } catch (IllegalArgumentException e) {
             return null;
         }
     }
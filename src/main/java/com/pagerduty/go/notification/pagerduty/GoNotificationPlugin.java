@@ -1,7 +1,7 @@
 package com.pagerduty.go.notification.pagerduty;
 
 
-import com.google.gson.GsonBuilder;
+import com.google.gson.Gson;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.GoPlugin;
 import com.thoughtworks.go.plugin.api.GoPluginIdentifier;
@@ -12,16 +12,46 @@ import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
+import javax.management.JMException;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 @Extension
 public class GoNotificationPlugin implements GoPlugin {
     private static final Logger LOGGER = Logger.getLoggerFor(GoNotificationPlugin.class);
     private static final String CONF_FILENAME = "pagerduty-notify.conf";
-    private static PagerDutyHandler pipeline;
+    private static final Gson GSON = new Gson();
+    private static final GoPluginApiResponse NOTIFICATION_INTEREST_RESPONSE = renderJSON(200,
+            Collections.singletonMap("notifications", Collections.singletonList("stage-status")));
+    // Set up on the first stage notification so that loading the plugin stays cheap
+    private static volatile PagerDutyHandler pipeline;
+    private static NotificationDispatcher dispatcher;
 
     public GoNotificationPlugin() {
+    }
+
+    // Runs the plugin against a prepared handler, for tests and benchmarks
+    GoNotificationPlugin(PagerDutyHandler handler, NotificationDispatcher notificationDispatcher) {
+        dispatcher = notificationDispatcher;
+        pipeline = handler;
+    }
+
+    private PagerDutyHandler pipeline() {
+        PagerDutyHandler handler = pipeline;
+        if (handler == null) {
+            synchronized (GoNotificationPlugin.class) {
+                handler = pipeline;
+                if (handler == null) {
+                    handler = start();
+                }
+            }
+        }
+        return handler;
+    }
+
+    private PagerDutyHandler start() {
         Config defaultConfig;
         Config config;
 
@@ -36,7 +66,58 @@ public class GoNotificationPlugin implements GoPlugin {
             config = ConfigFactory.parseFile(configFile).withFallback(defaultConfig);
         }
 
-        pipeline = new PagerDutyHandler(config);
+        final PagerDutyHandler handler = new PagerDutyHandler(config);
+
+        try {
+            handler.metrics().register();
+        } catch (JMException e) {
+            LOGGER.warn("Unable to publish notification metrics over JMX", e);
+        }
+
+        ConfigWatcher configWatcher = null;
+        if (config.getBoolean("pagerduty.watch_config")) {
+            try {
+                configWatcher = new ConfigWatcher(configFile, defaultConfig, handler);
+                configWatcher.start();
+            } catch (IOException e) {
+                LOGGER.warn(String.format("Unable to watch %s for changes, the server must be restarted to apply them", configFile), e);
+            }
+        }
+
+        if (config.getBoolean("pagerduty.dispatch.async")) {
+            dispatcher = NotificationDispatcher.fromConfig(handler, config);
+        } else {
+            dispatcher = null;
+        }
+
+        final NotificationDispatcher handlerDispatcher = dispatcher;
+        final ConfigWatcher handlerConfigWatcher = configWatcher;
+        final long shutdownTimeout = config.getDuration("pagerduty.dispatch.shutdown_timeout", TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread("pagerduty-notifier-shutdown") {
+            @Override
+            public void run() {
+                try {
+                    if (handlerConfigWatcher != null) {
+                        handlerConfigWatcher.close();
+                    }
+                    if (handlerDispatcher != null) {
+                        handlerDispatcher.shutdown(shutdownTimeout, TimeUnit.MILLISECONDS);
+                    }
+                    handler.close();
+                    handler.metrics().unregister();
+                } catch (JMException e) {
+                    LOGGER.warn("Unable to remove notification metrics from JMX", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    LOGGER.error("Error shutting down the notifier", e);
+                }
+            }
+        });
+
+        // Published last, the dispatcher is read after the handler
+        pipeline = handler;
+        return handler;
     }
 
     public void initializeGoApplicationAccessor(GoApplicationAccessor goApplicationAccessor) {
@@ -52,9 +133,7 @@ public class GoNotificationPlugin implements GoPlugin {
     }
 
     private GoPluginApiResponse handleNotificationInterest() {
-        Map<String, Object> response = new HashMap<>();
-        response.put("notifications", Collections.singletonList("stage-status"));
-        return renderJSON(200, response);
+        return NOTIFICATION_INTEREST_RESPONSE;
     }
 
     private GoPluginApiResponse handleStageNotification(GoPluginApiRequest goPluginApiRequest) {
@@ -65,15 +144,31 @@ public class GoNotificationPlugin implements GoPlugin {
 
         try {
             response.put("status", "success");
-            GoNotificationMessage message = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(goPluginApiRequest.requestBody(), GoNotificationMessage.class);
+            PagerDutyHandler pipeline = pipeline();
+            long parseStart = System.nanoTime();
+            TraceEvent.Span parseSpan = TraceEvent.PARSE.begin();
+            GoNotificationMessage message = GoNotificationMessage.parse(goPluginApiRequest.requestBody());
+            pipeline.metrics().recordParse(System.nanoTime() - parseStart);
+            if (parseSpan.isRecording()) {
+                parseSpan.commit(message == null || !message.hasPipelineAndStage() ? null : message.fullyQualifiedJobName());
+            }
 
-            pipeline.handle(message);
+            if (message == null || !message.hasPipelineAndStage()) {
+                throw new IllegalArgumentException("Stage notification is missing the pipeline or stage name");
+            }
+
+            if (dispatcher == null) {
+                // Services that couldn't be notified in time don't fail the notification, their events are retried
+                errorMessages.addAll(pipeline.handle(message));
+            } else if (!dispatcher.submit(message)) {
+                throw new IllegalStateException("Notification queue is full, dropped " + message.fullyQualifiedJobName());
+            }
 
         } catch (Exception e) {
             LOGGER.error("Error handling status message", e);
             responseCode = 500;
             response.put("status", "failure");
-            if (!(e.getMessage().isEmpty())){
+            if (e.getMessage() != null && !(e.getMessage().isEmpty())){
                 errorMessages.add(e.getMessage());
             }
         }
@@ -89,8 +184,8 @@ public class GoNotificationPlugin implements GoPlugin {
         return new GoPluginIdentifier("notification", Collections.singletonList("1.0"));
     }
 
-    private GoPluginApiResponse renderJSON(final int responseCode, Object response) {
-        final String json = response == null ? null : new GsonBuilder().create().toJson(response);
+    private static GoPluginApiResponse renderJSON(final int responseCode, Object response) {
+        final String json = response == null ? null : GSON.toJson(response);
         return new GoPluginApiResponse() {
             @Override
             public int responseCode() {
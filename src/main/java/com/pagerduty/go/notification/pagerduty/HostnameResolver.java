@@ -0,0 +1,68 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.net.InetAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Looks up the server's hostname in the background, so slow reverse DNS can't hold up startup.
+ * Callers wait for it at most once, for the configured timeout, and use a blank hostname until
+ * the lookup finishes.
+ */
+public class HostnameResolver {
+    private static final Logger LOGGER = Logger.getLoggerFor(HostnameResolver.class);
+
+    private final FutureTask<String> lookup;
+    private final long timeoutMs;
+    private volatile String hostname;
+    private volatile boolean timedOut;
+
+    public HostnameResolver(Callable<String> lookup, long timeoutMs) {
+        this.lookup = new FutureTask<>(lookup);
+        this.timeoutMs = timeoutMs;
+
+        Thread thread = new Thread(this.lookup, "pagerduty-hostname");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static HostnameResolver localHost(long timeoutMs) {
+        return new HostnameResolver(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return InetAddress.getLocalHost().getHostName();
+            }
+        }, timeoutMs);
+    }
+
+    public String hostname() {
+        String resolved = hostname;
+        if (resolved != null) {
+            return resolved;
+        }
+        if (timedOut && !lookup.isDone()) {
+            return "";
+        }
+
+        try {
+            resolved = lookup.get(timedOut ? 0 : timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warn(String.format("Hostname lookup took more than %d ms, using blank hostname until it finishes. Set pagerduty.server_url to skip it", timeoutMs));
+            timedOut = true;
+            return "";
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unable to discern hostname, using blank hostname", e.getCause());
+            resolved = "";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        }
+        hostname = resolved;
+        return resolved;
+    }
+}
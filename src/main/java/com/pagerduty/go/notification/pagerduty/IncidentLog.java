@@ -0,0 +1,70 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Makes the open incidents of a {@link BoundedIncidentStore} survive restarts. It only records the
+ * changes, the store is what keeps the incidents in memory.
+ */
+public interface IncidentLog extends Closeable {
+
+    /**
+     * Keeps nothing, the open incidents are forgotten when the server restarts.
+     */
+    IncidentLog NONE = new IncidentLog() {
+        @Override
+        public Map<String, String> recovered() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void put(String pipelineStage, String incidentKey) {
+        }
+
+        @Override
+        public void remove(String pipelineStage) {
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public boolean needsCompaction() {
+            return false;
+        }
+
+        @Override
+        public void compact(Collection<? extends Map.Entry<String, String>> incidents) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * @return the incident keys by pipeline stage open when the log was last written, only handed out once
+     */
+    Map<String, String> recovered();
+
+    void put(String pipelineStage, String incidentKey) throws IOException;
+
+    void remove(String pipelineStage) throws IOException;
+
+    void clear() throws IOException;
+
+    /**
+     * @return true once enough changes have been recorded that the log should be rewritten from the open incidents
+     */
+    boolean needsCompaction();
+
+    /**
+     * Rewrites the log as just the given open incidents.
+     */
+    void compact(Collection<? extends Map.Entry<String, String>> incidents) throws IOException;
+}
@@ -0,0 +1,29 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Remembers the PagerDuty incident opened for each pipeline stage until it is resolved.
+ */
+public interface IncidentStore extends Closeable {
+
+    /**
+     * @return the incident key opened for the pipeline stage, or null if there is none
+     */
+    String get(String pipelineStage);
+
+    void put(String pipelineStage, String incidentKey) throws IOException;
+
+    void remove(String pipelineStage) throws IOException;
+
+    int size();
+
+    /**
+     * @return a copy of the open incident keys by pipeline stage
+     */
+    Map<String, String> incidents();
+
+    void clear() throws IOException;
+}
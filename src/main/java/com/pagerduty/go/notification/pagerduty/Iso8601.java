@@ -0,0 +1,169 @@
+package com.pagerduty.go.notification.pagerduty;
+
+/**
+ * Thread-safe ISO-8601 timestamp parsing and formatting without per-call formatter objects.
+ * <p>
+ * Accepts the variants GoCD sends: {@code yyyy-MM-dd'T'HH:mm:ss}, optionally followed by
+ * fractional seconds, and then {@code Z}, a {@code +hh:mm}/{@code +hhmm}/{@code +hh} offset, or
+ * nothing for UTC.
+ */
+public final class Iso8601 {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    private Iso8601() {
+    }
+
+    /**
+     * @return milliseconds since the epoch
+     * @throws IllegalArgumentException if the timestamp is not ISO-8601
+     */
+    public static long parse(String date) {
+        int length = date.length();
+        if (length < 19 || date.charAt(4) != '-' || date.charAt(7) != '-' || (date.charAt(10) != 'T' && date.charAt(10) != 't')
+                || date.charAt(13) != ':' || date.charAt(16) != ':') {
+            throw invalid(date);
+        }
+
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 2);
+        int day = digits(date, 8, 2);
+        int hour = digits(date, 11, 2);
+        int minute = digits(date, 14, 2);
+        int second = digits(date, 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+            throw invalid(date);
+        }
+
+        int pos = 19;
+        int millis = 0;
+        if (pos < length && date.charAt(pos) == '.') {
+            pos++;
+            int start = pos;
+            int scale = 100;
+            while (pos < length && isDigit(date.charAt(pos))) {
+                millis += (date.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == start) {
+                throw invalid(date);
+            }
+        }
+
+        int offsetMinutes = 0;
+        if (pos < length) {
+            char zone = date.charAt(pos);
+            if ((zone == 'Z' || zone == 'z') && pos + 1 == length) {
+                pos++;
+            } else if (zone == '+' || zone == '-') {
+                int remaining = length - pos - 1;
+                int offsetHours;
+                int offsetMins = 0;
+                if (remaining == 2) {
+                    offsetHours = digits(date, pos + 1, 2);
+                } else if (remaining == 4) {
+                    offsetHours = digits(date, pos + 1, 2);
+                    offsetMins = digits(date, pos + 3, 2);
+                } else if (remaining == 5 && date.charAt(pos + 3) == ':') {
+                    offsetHours = digits(date, pos + 1, 2);
+                    offsetMins = digits(date, pos + 4, 2);
+                } else {
+                    throw invalid(date);
+                }
+                offsetMinutes = offsetHours * 60 + offsetMins;
+                if (zone == '-') {
+                    offsetMinutes = -offsetMinutes;
+                }
+                pos = length;
+            } else {
+                throw invalid(date);
+            }
+        }
+
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60L + second) * 1000L + millis
+                - offsetMinutes * MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * @return the timestamp as {@code yyyy-MM-dd'T'HH:mm:ss.SSS'Z'}
+     */
+    public static String format(long epochMillis) {
+        long days = floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (epochMillis - days * MILLIS_PER_DAY);
+
+        // Inverse of daysFromCivil
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] out = new char[24];
+        put(out, 0, year, 4);
+        out[4] = '-';
+        put(out, 5, month, 2);
+        out[7] = '-';
+        put(out, 8, day, 2);
+        out[10] = 'T';
+        put(out, 11, millisOfDay / 3600000, 2);
+        out[13] = ':';
+        put(out, 14, millisOfDay / 60000 % 60, 2);
+        out[16] = ':';
+        put(out, 17, millisOfDay / 1000 % 60, 2);
+        out[19] = '.';
+        put(out, 20, millisOfDay % 1000, 3);
+        out[23] = 'Z';
+        return new String(out);
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if (dividend % divisor != 0 && (dividend ^ divisor) < 0) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    private static int digits(String date, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = date.charAt(i);
+            if (!isDigit(c)) {
+                throw invalid(date);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void put(char[] out, int start, int value, int width) {
+        for (int i = start + width - 1; i >= start; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static IllegalArgumentException invalid(String date) {
+        return new IllegalArgumentException("Not an ISO-8601 timestamp: " + date);
+    }
+}
@@ -0,0 +1,58 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which jobs of a pipeline stage failed in its last notification, one bit per job.
+ * <p>
+ * Each job name gets a fixed index the first time it is seen, so a notification is compared with
+ * the last one a word of jobs at a time, and only the jobs whose outcome changed are looked at
+ * any further. Not thread-safe, callers hold the stage's lock.
+ */
+class JobOutcomes {
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private BitSet failed = new BitSet();
+
+    /**
+     * Records the outcome of every job in the message.
+     *
+     * @return the jobs that failed in this message but not in the previous one, in stage order
+     */
+    List<String> update(GoNotificationMessage message) {
+        BitSet current = new BitSet(names.size());
+        for (String jobName : message.getJobNames()) {
+            if ("Failed".equals(message.getJobResult(jobName))) {
+                current.set(index(jobName));
+            }
+        }
+
+        BitSet newlyFailed = (BitSet) current.clone();
+        newlyFailed.andNot(failed);
+        failed = current;
+        if (newlyFailed.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> jobNames = new ArrayList<>(newlyFailed.cardinality());
+        for (int i = newlyFailed.nextSetBit(0); i >= 0; i = newlyFailed.nextSetBit(i + 1)) {
+            jobNames.add(names.get(i));
+        }
+        return jobNames;
+    }
+
+    private int index(String jobName) {
+        Integer index = indexes.get(jobName);
+        if (index == null) {
+            index = names.size();
+            indexes.put(jobName, index);
+            names.add(jobName);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,186 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Makes open incidents survive restarts with an append-only journal.
+ * <p>
+ * Every change is one small record appended to the journal. Once the journal holds enough records
+ * the open incidents are written to a snapshot and the journal starts over, so startup only reads the
+ * snapshot plus the journal written since.
+ */
+public class JournalIncidentLog implements IncidentLog {
+    private static final Logger LOGGER = Logger.getLoggerFor(JournalIncidentLog.class);
+
+    static final String SNAPSHOT_FILENAME = "pagerduty-incidents.snapshot";
+    static final String JOURNAL_FILENAME = "pagerduty-incidents.journal";
+
+    private static final int SNAPSHOT_MAGIC = 0x50444931;
+    private static final byte OP_PUT = 'P';
+    private static final byte OP_REMOVE = 'R';
+    private static final byte OP_CLEAR = 'C';
+
+    // Read when opened, until handed to the store
+    private Map<String, String> incidentKeys = new HashMap<>();
+    private final File snapshotFile;
+    private final File journalFile;
+    private final int compactAfter;
+
+    private DataOutputStream journal;
+    private int journalEntries;
+
+    public JournalIncidentLog(File directory, int compactAfter) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create incident store directory " + directory);
+        }
+        this.snapshotFile = new File(directory, SNAPSHOT_FILENAME);
+        this.journalFile = new File(directory, JOURNAL_FILENAME);
+        this.compactAfter = compactAfter;
+
+        long start = System.nanoTime();
+        readSnapshot();
+        journalEntries = replayJournal();
+        journal = openJournal();
+        LOGGER.info(String.format("Recovered %d open incidents in %d ms", incidentKeys.size(), (System.nanoTime() - start) / 1000000));
+    }
+
+    @Override
+    public synchronized Map<String, String> recovered() {
+        Map<String, String> recovered = incidentKeys;
+        incidentKeys = Collections.emptyMap();
+        return recovered;
+    }
+
+    @Override
+    public synchronized void put(String pipelineStage, String incidentKey) throws IOException {
+        journal.writeByte(OP_PUT);
+        journal.writeUTF(pipelineStage);
+        journal.writeUTF(incidentKey);
+        appended();
+    }
+
+    @Override
+    public synchronized void remove(String pipelineStage) throws IOException {
+        journal.writeByte(OP_REMOVE);
+        journal.writeUTF(pipelineStage);
+        appended();
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        journal.writeByte(OP_CLEAR);
+        appended();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.close();
+    }
+
+    @Override
+    public synchronized boolean needsCompaction() {
+        return journalEntries >= compactAfter;
+    }
+
+    /**
+     * Writes the open incidents to the snapshot and truncates the journal.
+     */
+    @Override
+    public synchronized void compact(Collection<? extends Map.Entry<String, String>> incidents) throws IOException {
+        File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(incidents.size());
+            for (Map.Entry<String, String> entry : incidents) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Replaying an old journal over the new snapshot is harmless, so a crash before this point loses nothing
+        journal.close();
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, false)));
+        journalEntries = 0;
+    }
+
+    private void appended() throws IOException {
+        journal.flush();
+        journalEntries++;
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+    }
+
+    private void readSnapshot() throws IOException {
+        if (!snapshotFile.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not an incident snapshot: " + snapshotFile);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                incidentKeys.put(in.readUTF(), in.readUTF());
+            }
+        }
+    }
+
+    private int replayJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+
+        byte[] bytes = Files.readAllBytes(journalFile.toPath());
+        ByteArrayInputStream bytesIn = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bytesIn);
+        int entries = 0;
+        int validLength = 0;
+        try {
+            while (bytesIn.available() > 0) {
+                byte op = in.readByte();
+                if (op == OP_PUT) {
+                    incidentKeys.put(in.readUTF(), in.readUTF());
+                } else if (op == OP_REMOVE) {
+                    incidentKeys.remove(in.readUTF());
+                } else if (op == OP_CLEAR) {
+                    incidentKeys.clear();
+                } else {
+                    throw new IOException(String.format("Unknown journal record %d at offset %d", op, validLength));
+                }
+                entries++;
+                validLength = bytes.length - bytesIn.available();
+            }
+        } catch (IOException e) {
+            // A record cut short by a crash, drop it so new records are appended after the last complete one
+            LOGGER.warn(String.format("Discarding incomplete incident journal tail after %d records: %s", entries, e));
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(validLength);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,61 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two nanosecond buckets. Percentiles are reported as the
+ * upper bound of the bucket they fall in, so they are accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final StripedCounter totalNanos = new StripedCounter();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        totalNanos.add(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public NotificationMetricsMXBean.Latency snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+
+        long mean = count == 0 ? 0 : totalNanos.sum() / count;
+        return new NotificationMetricsMXBean.Latency(count, toMicros(mean), toMicros(percentile(counts, count, 0.5)),
+                toMicros(percentile(counts, count, 0.99)), toMicros(maxNanos.get()));
+    }
+
+    private static long percentile(long[] counts, long count, double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static double toMicros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
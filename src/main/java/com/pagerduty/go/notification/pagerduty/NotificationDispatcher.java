@@ -0,0 +1,226 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands parsed stage notifications to background workers so GoCD's plugin thread
+ * does not wait on the PagerDuty round trip.
+ * <p>
+ * Each worker drains its own lane, and the notifications of a pipeline stage always go to the same
+ * lane, so they are handled in the order they arrived while unrelated stages are handled in parallel.
+ * The lanes share the queue's capacity.
+ */
+public class NotificationDispatcher {
+    private static final Logger LOGGER = Logger.getLoggerFor(NotificationDispatcher.class);
+    private static final long POLL_INTERVAL_MS = 100;
+
+    public enum OverflowPolicy {
+        /** Wait for room in the queue. */
+        BLOCK,
+        /** Make room by discarding the oldest queued "Building" notification, reject if there is none. */
+        DROP_OLDEST_BUILDING,
+        /** Refuse the notification so the plugin answers with a 500. */
+        REJECT;
+
+        static OverflowPolicy fromConfig(String value) {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final PagerDutyHandler handler;
+    private final List<BlockingQueue<GoNotificationMessage>> lanes;
+    // Room left in the queue over all the lanes
+    private final Semaphore room;
+    private final OverflowPolicy overflowPolicy;
+    private final ExecutorService workers;
+    // Set under the dispatcher's lock, so a notification is either queued before it or refused
+    private volatile boolean shuttingDown = false;
+
+    public NotificationDispatcher(PagerDutyHandler handler, int capacity, int workerCount, OverflowPolicy overflowPolicy) {
+        if (capacity < 1 || workerCount < 1) {
+            throw new IllegalArgumentException("Dispatch queue capacity and worker count must be positive");
+        }
+        this.handler = handler;
+        this.lanes = new ArrayList<>(workerCount);
+        this.room = new Semaphore(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.workers = Executors.newFixedThreadPool(workerCount, new WorkerThreadFactory());
+        for (int i = 0; i < workerCount; i++) {
+            BlockingQueue<GoNotificationMessage> lane = new LinkedBlockingQueue<>();
+            lanes.add(lane);
+            workers.execute(new Worker(lane));
+        }
+    }
+
+    /**
+     * A worker count of 0 starts one per available processor.
+     */
+    public static NotificationDispatcher fromConfig(PagerDutyHandler handler, Config config) {
+        int workerCount = config.getInt("pagerduty.dispatch.workers");
+        return new NotificationDispatcher(handler,
+                config.getInt("pagerduty.dispatch.queue_capacity"),
+                workerCount == 0 ? Runtime.getRuntime().availableProcessors() : workerCount,
+                OverflowPolicy.fromConfig(config.getString("pagerduty.dispatch.overflow_policy")));
+    }
+
+    /**
+     * Queues a notification for delivery.
+     *
+     * @return false if the notification was refused because the queue is full or shutting down
+     */
+    public boolean submit(GoNotificationMessage message) throws InterruptedException {
+        if (shuttingDown) {
+            return false;
+        }
+
+        int lane = lane(message);
+        switch (overflowPolicy) {
+            case BLOCK:
+                // Workers stopped by a shutdown that timed out may never free room again
+                while (!room.tryAcquire(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    if (shuttingDown) {
+                        return false;
+                    }
+                }
+                break;
+            case DROP_OLDEST_BUILDING:
+                while (!room.tryAcquire()) {
+                    if (!dropOldestBuilding(lane)) {
+                        return false;
+                    }
+                }
+                break;
+            default:
+                if (!room.tryAcquire()) {
+                    return false;
+                }
+        }
+        // A caller may have waited for room through the shutdown, after which the workers could be gone
+        synchronized (this) {
+            if (shuttingDown) {
+                room.release();
+                return false;
+            }
+            lanes.get(lane).add(message);
+        }
+        return true;
+    }
+
+    private int lane(GoNotificationMessage message) {
+        int hash = 31 * message.getPipelineName().hashCode() + message.getStageName().hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % lanes.size();
+    }
+
+    /**
+     * Drops the oldest "Building" notification of the lane, or of the first other lane that has one.
+     */
+    private boolean dropOldestBuilding(int lane) {
+        for (int i = 0; i < lanes.size(); i++) {
+            BlockingQueue<GoNotificationMessage> queue = lanes.get((lane + i) % lanes.size());
+            Iterator<GoNotificationMessage> it = queue.iterator();
+            while (it.hasNext()) {
+                GoNotificationMessage queued = it.next();
+                // Only the room of a notification no worker has taken is freed
+                if ("Building".equals(queued.getStageState()) && queue.remove(queued)) {
+                    room.release();
+                    LOGGER.warn(String.format("Notification queue full, dropped %s %s", queued.fullyQualifiedJobName(), queued.getStageState()));
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int queuedCount() {
+        int queued = 0;
+        for (BlockingQueue<GoNotificationMessage> lane : lanes) {
+            queued += lane.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stops accepting notifications and waits for the queued ones to be delivered.
+     *
+     * @return true if the queue was drained within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            shuttingDown = true;
+        }
+        workers.shutdown();
+        boolean drained = workers.awaitTermination(timeout, unit);
+        if (!drained) {
+            LOGGER.warn(String.format("Notification queue not drained on shutdown, %d notifications dropped", queuedCount()));
+            workers.shutdownNow();
+        }
+        return drained;
+    }
+
+    private class Worker implements Runnable {
+        private final BlockingQueue<GoNotificationMessage> lane;
+
+        private Worker(BlockingQueue<GoNotificationMessage> lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                GoNotificationMessage message;
+                try {
+                    message = lane.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                if (message == null) {
+                    if (!shuttingDown) {
+                        continue;
+                    }
+                    // Anything queued before the shutdown is in the lane by now
+                    message = lane.poll();
+                    if (message == null) {
+                        return;
+                    }
+                }
+                room.release();
+
+                try {
+                    // There's no response left to report them in
+                    for (String problem : handler.handle(message)) {
+                        LOGGER.warn(problem);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Error handling status message for " + message.fullyQualifiedJobName(), e);
+                }
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pagerduty-notifier-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts and times the notifications going through a {@link PagerDutyHandler}.
+ * <p>
+ * Totals use striped counters and latencies lock-free histograms, so recording from many plugin
+ * threads at once does not contend. Per pipeline and per service key counts are updated from the
+ * plugin threads, the retry thread and the transport's callbacks alike, so they are atomic too. Only
+ * the most recently counted pipelines and service keys are kept, so that renamed and deleted
+ * pipelines don't pile up; the totals still include the ones dropped.
+ */
+public class NotificationMetrics implements NotificationMetricsMXBean {
+    public static final String OBJECT_NAME = "com.pagerduty.go.notification:type=NotificationMetrics";
+
+    public enum Event {
+        RECEIVED, IGNORED, TRIGGERED, RESOLVED, FAILED
+    }
+
+    private static final int EVENTS = Event.values().length;
+
+    private final StripedCounter[] totals = new StripedCounter[EVENTS];
+    private final Map<String, AtomicLongArray> byPipeline;
+    private final Map<String, AtomicLongArray> byServiceKey;
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram decisionLatency = new LatencyHistogram();
+    private final LatencyHistogram pagerDutyLatency = new LatencyHistogram();
+    private final IncidentStore incidents;
+
+    /**
+     * @param maxKeys how many pipelines, and how many service keys, to keep counts for
+     */
+    public NotificationMetrics(IncidentStore incidents, int maxKeys) {
+        this.incidents = incidents;
+        this.byPipeline = boundedCounters(maxKeys);
+        this.byServiceKey = boundedCounters(maxKeys);
+        for (int i = 0; i < EVENTS; i++) {
+            totals[i] = new StripedCounter();
+        }
+    }
+
+    public void record(Event event, String pipeline, String serviceKey) {
+        totals[event.ordinal()].increment();
+        if (pipeline != null) {
+            counters(byPipeline, pipeline).incrementAndGet(event.ordinal());
+        }
+        if (serviceKey != null) {
+            counters(byServiceKey, serviceKey).incrementAndGet(event.ordinal());
+        }
+    }
+
+    public void recordParse(long nanos) {
+        parseLatency.record(nanos);
+    }
+
+    public void recordDecision(long nanos) {
+        decisionLatency.record(nanos);
+    }
+
+    public void recordPagerDutyCall(long nanos) {
+        pagerDutyLatency.record(nanos);
+    }
+
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Override
+    public EventCounts getTotals() {
+        return new EventCounts(totals[0].sum(), totals[1].sum(), totals[2].sum(), totals[3].sum(), totals[4].sum());
+    }
+
+    @Override
+    public Map<String, EventCounts> getPipelines() {
+        Map<String, EventCounts> pipelines = new TreeMap<>();
+        synchronized (byPipeline) {
+            for (Map.Entry<String, AtomicLongArray> entry : byPipeline.entrySet()) {
+                pipelines.put(entry.getKey(), toEventCounts(entry.getValue()));
+            }
+        }
+        return pipelines;
+    }
+
+    @Override
+    public Map<String, EventCounts> getServiceKeys() {
+        Map<String, EventCounts> serviceKeys = new TreeMap<>();
+        synchronized (byServiceKey) {
+            for (Map.Entry<String, AtomicLongArray> entry : byServiceKey.entrySet()) {
+                serviceKeys.put(maskServiceKey(entry.getKey()), toEventCounts(entry.getValue()));
+            }
+        }
+        return serviceKeys;
+    }
+
+    @Override
+    public Latency getParseLatency() {
+        return parseLatency.snapshot();
+    }
+
+    @Override
+    public Latency getDecisionLatency() {
+        return decisionLatency.snapshot();
+    }
+
+    @Override
+    public Latency getPagerDutyLatency() {
+        return pagerDutyLatency.snapshot();
+    }
+
+    @Override
+    public int getOpenIncidents() {
+        return incidents.size();
+    }
+
+    static String maskServiceKey(String serviceKey) {
+        if (serviceKey.length() <= 4) {
+            return "****";
+        }
+        return "****" + serviceKey.substring(serviceKey.length() - 4);
+    }
+
+    private static AtomicLongArray counters(Map<String, AtomicLongArray> map, String key) {
+        synchronized (map) {
+            AtomicLongArray counters = map.get(key);
+            if (counters == null) {
+                counters = new AtomicLongArray(EVENTS);
+                map.put(key, counters);
+            }
+            return counters;
+        }
+    }
+
+    // Least recently counted first, dropped once there are more than maxKeys
+    private static Map<String, AtomicLongArray> boundedCounters(final int maxKeys) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, AtomicLongArray>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AtomicLongArray> eldest) {
+                return size() > maxKeys;
+            }
+        });
+    }
+
+    private static EventCounts toEventCounts(AtomicLongArray counters) {
+        return new EventCounts(counters.get(0), counters.get(1), counters.get(2), counters.get(3), counters.get(4));
+    }
+}
@@ -0,0 +1,102 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+
+/**
+ * Notification throughput, latency and failures, published over JMX as
+ * {@value NotificationMetrics#OBJECT_NAME}.
+ */
+public interface NotificationMetricsMXBean {
+
+    EventCounts getTotals();
+
+    Map<String, EventCounts> getPipelines();
+
+    /**
+     * Counts per service API key, with all but the last four characters of each key masked.
+     */
+    Map<String, EventCounts> getServiceKeys();
+
+    Latency getParseLatency();
+
+    Latency getDecisionLatency();
+
+    Latency getPagerDutyLatency();
+
+    int getOpenIncidents();
+
+    class EventCounts {
+        private final long received;
+        private final long ignored;
+        private final long triggered;
+        private final long resolved;
+        private final long failed;
+
+        @ConstructorProperties({"received", "ignored", "triggered", "resolved", "failed"})
+        public EventCounts(long received, long ignored, long triggered, long resolved, long failed) {
+            this.received = received;
+            this.ignored = ignored;
+            this.triggered = triggered;
+            this.resolved = resolved;
+            this.failed = failed;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getIgnored() {
+            return ignored;
+        }
+
+        public long getTriggered() {
+            return triggered;
+        }
+
+        public long getResolved() {
+            return resolved;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+
+    class Latency {
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double maxMicros;
+
+        @ConstructorProperties({"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"})
+        public Latency(long count, double meanMicros, double p50Micros, double p99Micros, double maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+}
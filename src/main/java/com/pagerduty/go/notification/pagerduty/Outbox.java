@@ -0,0 +1,207 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deliveries PagerDuty hasn't accepted yet, in the order they were made.
+ * <p>
+ * When given a directory the outbox is kept in an append-only journal, like the open incidents,
+ * so pending deliveries survive a restart. The journal starts over whenever the outbox empties
+ * and is rewritten with only the pending deliveries once it holds too many acknowledged ones.
+ */
+public class Outbox implements Closeable {
+    private static final Logger LOGGER = Logger.getLoggerFor(Outbox.class);
+
+    static final String JOURNAL_FILENAME = "pagerduty-outbox.journal";
+
+    private static final byte OP_ADD = 'A';
+    private static final byte OP_DELIVERED = 'D';
+    // An add followed by the delivery's details, so journals without them still replay
+    private static final byte OP_ADD_WITH_DETAILS = 'E';
+
+    private final Map<Long, Delivery> pending = new LinkedHashMap<>();
+    private final File journalFile;
+    private final int compactAfter;
+    private long nextSequence = 1;
+
+    private DataOutputStream journal;
+    private int journalEntries;
+
+    /**
+     * Creates an outbox that only lives in memory.
+     */
+    public Outbox() {
+        this.journalFile = null;
+        this.compactAfter = 0;
+    }
+
+    public Outbox(File directory, int compactAfter) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create outbox directory " + directory);
+        }
+        this.journalFile = new File(directory, JOURNAL_FILENAME);
+        this.compactAfter = compactAfter;
+
+        journalEntries = replayJournal();
+        journal = openJournal(true);
+        if (!pending.isEmpty()) {
+            LOGGER.info(String.format("Recovered %d undelivered PagerDuty events", pending.size()));
+        }
+    }
+
+    public synchronized void add(Delivery delivery) throws IOException {
+        delivery.sequence(nextSequence++);
+        pending.put(delivery.sequence(), delivery);
+        if (journal != null) {
+            writeAdd(journal, delivery);
+            appended();
+        }
+    }
+
+    public synchronized void delivered(Delivery delivery) throws IOException {
+        if (pending.remove(delivery.sequence()) == null || journal == null) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            journal.close();
+            journal = openJournal(false);
+            journalEntries = 0;
+            return;
+        }
+        journal.writeByte(OP_DELIVERED);
+        journal.writeLong(delivery.sequence());
+        appended();
+    }
+
+    /**
+     * @return the pending deliveries, oldest first
+     */
+    public synchronized List<Delivery> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void appended() throws IOException {
+        journal.flush();
+        if (++journalEntries >= compactAfter) {
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            for (Delivery delivery : pending.values()) {
+                writeAdd(out, delivery);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        journal.close();
+        Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = openJournal(true);
+        journalEntries = pending.size();
+    }
+
+    private DataOutputStream openJournal(boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, append)));
+    }
+
+    private static void writeAdd(DataOutputStream out, Delivery delivery) throws IOException {
+        Map<String, String> details = delivery.details();
+        out.writeByte(details.isEmpty() ? OP_ADD : OP_ADD_WITH_DETAILS);
+        out.writeLong(delivery.sequence());
+        out.writeByte(delivery.type() == Delivery.Type.TRIGGER ? 'T' : 'R');
+        out.writeUTF(delivery.serviceKey());
+        out.writeUTF(delivery.pipelineName());
+        out.writeUTF(delivery.pipelineStage());
+        out.writeUTF(delivery.incidentKey());
+        out.writeUTF(delivery.description());
+        out.writeUTF(delivery.clientUrl() == null ? "" : delivery.clientUrl());
+        if (!details.isEmpty()) {
+            out.writeInt(details.size());
+            for (Map.Entry<String, String> detail : details.entrySet()) {
+                out.writeUTF(detail.getKey());
+                out.writeUTF(detail.getValue());
+            }
+        }
+    }
+
+    private int replayJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+
+        byte[] bytes = Files.readAllBytes(journalFile.toPath());
+        ByteArrayInputStream bytesIn = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bytesIn);
+        int entries = 0;
+        int validLength = 0;
+        try {
+            while (bytesIn.available() > 0) {
+                byte op = in.readByte();
+                if (op == OP_ADD || op == OP_ADD_WITH_DETAILS) {
+                    long sequence = in.readLong();
+                    Delivery.Type type = in.readByte() == 'T' ? Delivery.Type.TRIGGER : Delivery.Type.RESOLVE;
+                    String serviceKey = in.readUTF();
+                    String pipelineName = in.readUTF();
+                    String pipelineStage = in.readUTF();
+                    String incidentKey = in.readUTF();
+                    String description = in.readUTF();
+                    String clientUrl = in.readUTF();
+                    Map<String, String> details = new LinkedHashMap<>();
+                    if (op == OP_ADD_WITH_DETAILS) {
+                        for (int i = in.readInt(); i > 0; i--) {
+                            details.put(in.readUTF(), in.readUTF());
+                        }
+                    }
+                    Delivery delivery = new Delivery(type, serviceKey, pipelineName, pipelineStage, incidentKey, description,
+                            clientUrl.isEmpty() ? null : clientUrl, details);
+                    delivery.sequence(sequence);
+                    pending.put(sequence, delivery);
+                    nextSequence = Math.max(nextSequence, sequence + 1);
+                } else if (op == OP_DELIVERED) {
+                    pending.remove(in.readLong());
+                } else {
+                    throw new IOException(String.format("Unknown outbox record %d at offset %d", op, validLength));
+                }
+                entries++;
+                validLength = bytes.length - bytesIn.available();
+            }
+        } catch (IOException e) {
+            // A record cut short by a crash, drop it so new records are appended after the last complete one
+            LOGGER.warn(String.format("Discarding incomplete outbox journal tail after %d records: %s", entries, e));
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(validLength);
+            }
+        }
+        return entries;
+    }
+}
@@ -1,89 +1,722 @@
 package com.pagerduty.go.notification.pagerduty;
 
-import com.squareup.pagerduty.incidents.NotifyResult;
 import com.squareup.pagerduty.incidents.PagerDuty;
-import com.squareup.pagerduty.incidents.Resolution;
-import com.squareup.pagerduty.incidents.Trigger;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.typesafe.config.Config;
-import com.typesafe.config.ConfigValue;
+import retrofit.RestAdapter;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public class PagerDutyHandler {
     private static final Logger LOGGER = Logger.getLoggerFor(PagerDutyHandler.class);
+    private static final int STAGE_LOCK_STRIPES = 256;
+    // Between the pipeline stage and the service key in the incident store, for every service but a stage's first
+    private static final String SERVICE_SEPARATOR = "#";
 
-    private static Map<String, String> pipelineApiKeys = new HashMap<>();
-    private static List<String> statusesToAlertOn;
-    private static Map<String, String> currentIncidentKeys = new HashMap<>();
-    private static String hostname;
+    // One client per service API key, shared by every notification thread
+    private final ConcurrentMap<String, PagerDuty> pagerDutyClients = new ConcurrentHashMap<>();
+    private final RestAdapter restAdapter;
+    private final BoundedIncidentStore currentIncidentKeys;
+    private final boolean resolveEvictedIncidents;
+    private final StageKeys stageKeys;
+    private final Object[] stageLocks = new Object[STAGE_LOCK_STRIPES];
+    private final NotificationMetrics metrics;
+    private final DeliveryEngine deliveries;
+    // Derive incident keys from the pipeline stage instead of remembering them
+    private final boolean deterministicIncidentKeys;
+    private final String incidentKeyNamespace;
+    // Pipeline stages that changed state recently, and the state they have reached since. Null timer when turned off
+    private final ConcurrentMap<String, FlapWindow> flapWindows = new ConcurrentHashMap<>();
+    private final TimerWheel flapTimer;
+    private final long flapWindowMs;
+    // The job outcomes of each routed pipeline stage, only kept when triggers list the failed jobs
+    private final Map<String, JobOutcomes> jobOutcomes;
+    private final boolean jobTracking;
+    // The latest pipeline and stage counters seen for each pipeline stage, null when stale notifications aren't rejected
+    private final Map<String, long[]> latestRuns;
+    // Null when failures aren't aggregated
+    private final StormAggregator storms;
+    private final long stormWindowMs;
+    // Either the configured server URL or the looked up hostname the links and descriptions point at
+    private final URI serverUrl;
+    private final HostnameResolver hostnameResolver;
+    // Read once per notification, replaced whole on reload so a notification never sees half a configuration
+    private volatile RoutingSnapshot routing;
 
     public PagerDutyHandler(Config config) {
+        this(config, null);
+    }
+
+    /**
+     * @param hostnameResolver looks up the hostname when no server URL is configured, null for the local host's
+     */
+    PagerDutyHandler(Config config, HostnameResolver hostnameResolver) {
+
+        reload(config);
+
+        for (int i = 0; i < stageLocks.length; i++) {
+            stageLocks[i] = new Object();
+        }
+
+        restAdapter = new RestAdapter.Builder()
+                .setEndpoint(config.getString("pagerduty.http.base_url"))
+                .setClient(PagerDutyHttpClient.fromConfig(config))
+                .build();
+
+        String onEvict = config.getString("pagerduty.incident_store.on_evict");
+        if (!"log".equals(onEvict) && !"resolve".equals(onEvict)) {
+            throw new IllegalArgumentException("Unknown incident eviction policy: " + onEvict);
+        }
+        resolveEvictedIncidents = "resolve".equals(onEvict);
+        final int maxIncidents = config.getInt("pagerduty.incident_store.max_size");
+        stageKeys = new StageKeys(maxIncidents);
+        jobOutcomes = Collections.synchronizedMap(new LinkedHashMap<String, JobOutcomes>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JobOutcomes> eldest) {
+                return size() > maxIncidents;
+            }
+        });
+
+        Outbox outbox;
+        PagerDutyTransport transport;
+        try {
+            currentIncidentKeys = new BoundedIncidentStore(newIncidentLog(config), maxIncidents,
+                    config.getDuration("pagerduty.incident_store.ttl", TimeUnit.MILLISECONDS),
+                    new BoundedIncidentStore.EvictionListener() {
+                        @Override
+                        public void evicted(String pipelineStage, String incidentKey, String pipelineName, String serviceKey) {
+                            evictedIncident(pipelineStage, incidentKey, pipelineName, serviceKey);
+                        }
+                    });
+            outbox = newOutbox(config);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the incident store", e);
+        }
+        transport = newTransport(config);
+        metrics = new NotificationMetrics(currentIncidentKeys, maxIncidents);
+        deliveries = DeliveryEngine.fromConfig(transport, outbox, metrics, config);
+
+        String incidentKeyMode = config.getString("pagerduty.incident_key_mode");
+        if (!"stateful".equals(incidentKeyMode) && !"deterministic".equals(incidentKeyMode)) {
+            throw new IllegalArgumentException("Unknown incident key mode: " + incidentKeyMode);
+        }
+        deterministicIncidentKeys = "deterministic".equals(incidentKeyMode);
+        incidentKeyNamespace = config.getString("pagerduty.incident_key_namespace");
+
+        flapWindowMs = config.getDuration("pagerduty.flap_window", TimeUnit.MILLISECONDS);
+        if (flapWindowMs > 0) {
+            flapTimer = new TimerWheel("pagerduty-flap-windows", Math.max(1, Math.min(100, flapWindowMs / 8)), TimeUnit.MILLISECONDS, 512);
+        } else {
+            flapTimer = null;
+        }
+
+        jobTracking = config.getBoolean("pagerduty.job_tracking");
+
+        if (config.getBoolean("pagerduty.reject_stale_events")) {
+            latestRuns = Collections.synchronizedMap(new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                    return size() > maxIncidents;
+                }
+            });
+        } else {
+            latestRuns = null;
+        }
+
+        int stormThreshold = config.getInt("pagerduty.storm.threshold");
+        stormWindowMs = config.getDuration("pagerduty.storm.window", TimeUnit.MILLISECONDS);
+        storms = stormThreshold > 0 ? new StormAggregator(stormThreshold, stormWindowMs) : null;
+
+        String configuredServerUrl = config.getString("pagerduty.server_url");
+        if (!configuredServerUrl.isEmpty()) {
+            try {
+                serverUrl = new URI(configuredServerUrl);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Invalid GoCD server URL: " + configuredServerUrl, e);
+            }
+            this.hostnameResolver = null;
+        } else {
+            serverUrl = null;
+            this.hostnameResolver = hostnameResolver != null ? hostnameResolver
+                    : HostnameResolver.localHost(config.getDuration("pagerduty.hostname_timeout", TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * @return what kept the notification from reaching each of its services, empty if nothing did. Those
+     * that didn't get through in time are still retried
+     */
+    public List<String> handle(GoNotificationMessage message) throws Exception {
+        long start = System.nanoTime();
+        TraceEvent.Span routingSpan = TraceEvent.ROUTING.begin();
+
+        RoutingSnapshot routing = this.routing;
+        String pipelineStage = stageKeys.key(message.getPipelineName(), message.getStageName());
+        Route route = routing.route(message.getPipelineName(), message.getPipelineGroup(), message.getStageName());
+        String serviceKey = route == null ? null : route.serviceKey();
+        metrics.record(NotificationMetrics.Event.RECEIVED, message.getPipelineName(), serviceKey);
+
+        // Notifications for the same pipeline/stage are handled one at a time so that the
+        // check for an open incident and its trigger/resolve can't interleave
+        NotificationMetrics.Event decision;
+        Changes changes = new Changes();
+        DeliveryEngine.Batch sent;
+        synchronized (stageLock(pipelineStage)) {
+            decision = handleStage(route, pipelineStage, serviceKey, message, changes, start);
+            // Handed over under the stage's lock so the stage's next notification can't overtake them, and
+            // waited for outside it so other stages sharing the lock aren't held up by PagerDuty
+            sent = changes.batch.isEmpty() ? null : deliveries.submit(changes.batch);
+            // Only now can a storm resolve the incidents, without overtaking their triggers
+            for (StormAggregator.Incident incident : changes.paged) {
+                StormAggregator.Storm storm = storms.paged(incident);
+                if (storm != null) {
+                    sendStorm(storm, Collections.singletonList(incident), pipelineStage, message, changes);
+                }
+            }
+        }
+        List<String> problems = new ArrayList<>();
+        if (sent != null) {
+            problems.addAll(sent.await());
+        }
+        for (DeliveryEngine.Batch summary : changes.summaries) {
+            problems.addAll(summary.await());
+        }
+        if (routingSpan.isRecording()) {
+            routingSpan.commit(message.fullyQualifiedJobName(), route == null ? null : maskServiceKeys(route),
+                    message.getStageState(), message.getStageResult(), decision.name());
+        }
+        return problems;
+    }
+
+    /**
+     * @param changes gets the deliveries the notification calls for
+     * @return whether the notification was ignored or triggered or resolved an incident
+     */
+    private NotificationMetrics.Event handleStage(Route route, String pipelineStage, String serviceKey, GoNotificationMessage message,
+                                                  Changes changes, long start) throws Exception {
+        if (latestRuns != null && isStale(pipelineStage, message)) {
+            LOGGER.info(String.format("Ignoring %s %s, a later run of the stage was already seen", message.fullyQualifiedJobName(), message.getStageState()));
+            return ignored(message, serviceKey, start);
+        }
+
+        // Every notification of the stage is compared, so a job only counts as newly failed once
+        Map<String, String> failedJobs = jobTracking && route != null ? newlyFailedJobs(pipelineStage, message)
+                : Collections.<String, String>emptyMap();
+
+        FlapWindow window = flapWindows.get(pipelineStage);
+        if (window != null) {
+            // Only the state the stage is in when the window closes is sent
+            window.update(route, message, failedJobs);
+            return ignored(message, serviceKey, start);
+        }
+
+        // Create incidents when matching pipelines fail, and clear them when the pipeline + stage passes
+        boolean failing = route != null && route.alertsOn(message.getStageState());
+        if (route == null || !failing && !"Passed".equals(message.getStageResult())) {
+            return ignored(message, serviceKey, start);
+        }
+
+        metrics.recordDecision(System.nanoTime() - start);
+        boolean changed = changeIncidents(route, pipelineStage, message, failing, failedJobs, true, changes);
+        if (changed) {
+            openFlapWindow(pipelineStage, new FlapWindow(failing, route, message));
+        }
+        if (changes.isEmpty()) {
+            metrics.record(NotificationMetrics.Event.IGNORED, message.getPipelineName(), serviceKey);
+            return NotificationMetrics.Event.IGNORED;
+        }
+        return failing ? NotificationMetrics.Event.TRIGGERED : NotificationMetrics.Event.RESOLVED;
+    }
+
+    private NotificationMetrics.Event ignored(GoNotificationMessage message, String serviceKey, long start) {
+        metrics.recordDecision(System.nanoTime() - start);
+        metrics.record(NotificationMetrics.Event.IGNORED, message.getPipelineName(), serviceKey);
+        return NotificationMetrics.Event.IGNORED;
+    }
+
+    /**
+     * Triggers or resolves the incident of the pipeline stage in each service of the route. Each service has its
+     * own incident, remembered under the pipeline stage for the first service and under
+     * {@code <pipeline stage>#<service key>} for the others.
+     * <p>
+     * In deterministic mode every service is sent the stage's own incident key and left to dedupe it.
+     *
+     * @param aggregate whether failures may count towards a storm
+     * @return whether an incident was triggered or resolved on its own rather than through a storm
+     */
+    private boolean changeIncidents(Route route, String pipelineStage, GoNotificationMessage message, boolean failing,
+                                    Map<String, String> failedJobs, boolean aggregate, Changes changes) throws Exception {
+        List<Delivery> batch = changes.batch;
+        boolean changed = false;
+        for (String serviceKey : route.serviceKeys()) {
+            String storeKey = serviceKey.equals(route.serviceKey()) ? pipelineStage : pipelineStage + SERVICE_SEPARATOR + serviceKey;
+            if (deterministicIncidentKeys) {
+                batch.add(failing ? trigger(storeKey, pipelineStage, serviceKey, deterministicIncidentKey(message), message, failedJobs)
+                        : resolve(storeKey, pipelineStage, serviceKey, deterministicIncidentKey(message), message));
+                changed = true;
+                continue;
+            }
+
+            TraceEvent.Span lookupSpan = TraceEvent.STORE_LOOKUP.begin();
+            String incidentKey = currentIncidentKeys.get(storeKey);
+            if (lookupSpan.isRecording()) {
+                lookupSpan.commit(message.fullyQualifiedJobName(), storeKey, incidentKey);
+            }
+
+            if (failing) {
+                // TODO: Should we create a new incident for each failure or assume that if we've already created one that we're good?
+                //       If we create multiple incidents it will be more challenging to resolve them after a pass, obviously.
+
+                // If we don't already have an open incident for this pipeline/stage
+                if (incidentKey != null) {
+                    continue;
+                }
+                // The incident key is chosen here rather than by PagerDuty so the trigger can be retried later
+                StormAggregator.Incident own = new StormAggregator.Incident(serviceKey, pipelineStage, message.getPipelineName(),
+                        UUID.randomUUID().toString(), System.currentTimeMillis());
+                if (aggregate && storms != null) {
+                    StormAggregator.Storm storm = storms.failed(own);
+                    if (storm != null) {
+                        joinStorm(storm, storeKey, pipelineStage, message, changes);
+                        continue;
+                    }
+                    changes.paged.add(own);
+                }
+                batch.add(trigger(storeKey, pipelineStage, serviceKey, own.incidentKey(), message, failedJobs));
+                changed = true;
+            } else if (incidentKey != null) {
+                StormAggregator.Storm storm = storms != null ? storms.passed(serviceKey, pipelineStage) : null;
+                if (storm != null) {
+                    leaveStorm(storm, storeKey, pipelineStage, message, changes);
+                    continue;
+                }
+                batch.add(resolve(storeKey, pipelineStage, serviceKey, incidentKey, message));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private Delivery trigger(String storeKey, String pipelineStage, String serviceKey, String incidentKey, GoNotificationMessage message,
+                             Map<String, String> failedJobs) throws Exception {
+        String goUrl = getGoCDURL(message);
+        Delivery trigger = Delivery.trigger(serviceKey, message.getPipelineName(), pipelineStage, incidentKey,
+                String.format("Failed Build: %s build %s on %s", message.fullyQualifiedJobName(), message.getStageState(), hostname()),
+                goUrl, failedJobs);
+        trigger.jobName(message.fullyQualifiedJobName());
+        if (!deterministicIncidentKeys) {
+            currentIncidentKeys.put(storeKey, incidentKey, message.getPipelineName(), serviceKey);
+        }
+        metrics.record(NotificationMetrics.Event.TRIGGERED, message.getPipelineName(), serviceKey);
+        return trigger;
+    }
+
+    private Delivery resolve(String storeKey, String pipelineStage, String serviceKey, String incidentKey, GoNotificationMessage message) throws IOException {
+        Delivery resolution = Delivery.resolve(serviceKey, message.getPipelineName(), pipelineStage, incidentKey,
+                String.format("%s build %s on %s", message.fullyQualifiedJobName(), message.getStageState(), hostname()));
+        resolution.jobName(message.fullyQualifiedJobName());
+        if (!deterministicIncidentKeys) {
+            currentIncidentKeys.remove(storeKey);
+        }
+        metrics.record(NotificationMetrics.Event.RESOLVED, message.getPipelineName(), serviceKey);
+        return resolution;
+    }
+
+    /**
+     * Files the failing stage under its service key's summary incident.
+     */
+    private void joinStorm(StormAggregator.Storm storm, String storeKey, String pipelineStage, GoNotificationMessage message,
+                           Changes changes) throws Exception {
+        // Remembered under the summary, so the stage isn't counted again until it has passed
+        currentIncidentKeys.put(storeKey, storm.incidentKey(), message.getPipelineName(), storm.serviceKey());
+        List<StormAggregator.Incident> moved = storm.announce();
+        if (moved != null) {
+            metrics.record(NotificationMetrics.Event.TRIGGERED, message.getPipelineName(), storm.serviceKey());
+        }
+        sendStorm(storm, moved == null ? Collections.<StormAggregator.Incident>emptyList() : moved, pipelineStage, message, changes);
+    }
+
+    /**
+     * Sends the summary incident with the stages now failing under it, resolving the incidents of those
+     * that moved under it. PagerDuty dedupes the summary and keeps its latest details.
+     */
+    private void sendStorm(StormAggregator.Storm storm, List<StormAggregator.Incident> moved, String pipelineStage,
+                           GoNotificationMessage message, Changes changes) throws Exception {
+        List<Delivery> batch = new ArrayList<>();
+        for (StormAggregator.Incident incident : moved) {
+            batch.add(Delivery.resolve(storm.serviceKey(), incident.pipelineName(), incident.pipelineStage(), incident.incidentKey(),
+                    String.format("%s is failing along with other stages on %s, it moved to their summary", incident.pipelineStage(), hostname())));
+            metrics.record(NotificationMetrics.Event.RESOLVED, incident.pipelineName(), storm.serviceKey());
+        }
+        String goUrl = getGoCDURL(message);
+
+        // Handed over under the storm's lock, so that PagerDuty gets the summary's updates in order and none after its resolution
+        synchronized (storm) {
+            if (!storm.closed()) {
+                Map<String, String> failedStages = new LinkedHashMap<>();
+                for (String failedStage : storms.members(storm)) {
+                    failedStages.put(failedStage, "Failed");
+                }
+                Delivery summary = Delivery.trigger(storm.serviceKey(), message.getPipelineName(), pipelineStage, storm.incidentKey(),
+                        String.format("Failed Builds: %d pipeline stages failing at once on %s", failedStages.size(), hostname()),
+                        goUrl, failedStages);
+                summary.jobName(message.fullyQualifiedJobName());
+                batch.add(summary);
+            }
+            if (!batch.isEmpty()) {
+                changes.summaries.add(deliveries.submit(batch));
+            }
+        }
+    }
+
+    /**
+     * Takes the passing stage out of its summary incident, which is resolved once no stage is left failing.
+     */
+    private void leaveStorm(StormAggregator.Storm storm, String storeKey, String pipelineStage, GoNotificationMessage message,
+                            Changes changes) throws IOException {
+        currentIncidentKeys.remove(storeKey);
+        DeliveryEngine.Batch resolution = resolveStorm(storm, message.getPipelineName(), pipelineStage, message.fullyQualifiedJobName());
+        if (resolution != null) {
+            changes.summaries.add(resolution);
+        }
+    }
 
-        // Load API key list pipeline_name=api_key
-        Config apiKeyConfig = config.getConfig("pagerduty.pipeline_api_keys");
-        for (Map.Entry<String, ConfigValue> entry : apiKeyConfig.entrySet()) {
-            pipelineApiKeys.put(entry.getKey(), entry.getValue().unwrapped().toString());
+    /**
+     * @param jobName the job whose notification closed the storm, or null
+     * @return the summary's resolution once its last stage has left it, otherwise null
+     */
+    private DeliveryEngine.Batch resolveStorm(StormAggregator.Storm storm, String pipelineName, String pipelineStage, String jobName) {
+        synchronized (storm) {
+            if (!storm.resolve()) {
+                return null;
+            }
+            Delivery summary = Delivery.resolve(storm.serviceKey(), pipelineName, pipelineStage, storm.incidentKey(),
+                    String.format("All %d failed pipeline stages passed on %s", storm.joined(), hostname()));
+            if (jobName != null) {
+                summary.jobName(jobName);
+            }
+            metrics.record(NotificationMetrics.Event.RESOLVED, pipelineName, storm.serviceKey());
+            return deliveries.submit(Collections.singletonList(summary));
         }
+    }
 
-        statusesToAlertOn = config.getStringList("pagerduty.statuses_to_alert");
+    /**
+     * Resolves or forgets an incident the store no longer has room or time for.
+     */
+    private void evictedIncident(String storeKey, String incidentKey, String pipelineName, String serviceKey) {
+        // Incidents of a stage in other services than its first are stored under the service key too
+        int separator = storeKey.indexOf(SERVICE_SEPARATOR);
+        String pipelineStage = separator < 0 ? storeKey : storeKey.substring(0, separator);
+        StormAggregator.Storm storm = storms == null || serviceKey == null ? null : storms.passed(serviceKey, pipelineStage);
+        if (storm != null) {
+            // A summary incident stays open for the stages still failing under it. Evictions happen while the
+            // incident store is being changed, so its resolution isn't waited for
+            resolveStorm(storm, pipelineName, pipelineStage, null);
+            return;
+        }
+        if (!resolveEvictedIncidents || serviceKey == null) {
+            LOGGER.warn(String.format("Forgot open incident %s of %s, it has to be resolved in PagerDuty", incidentKey, pipelineStage));
+            return;
+        }
+        // Evictions happen while the incident store is being changed, so the resolution isn't waited for
+        deliveries.submit(Collections.singletonList(Delivery.resolve(serviceKey, pipelineName, pipelineStage, incidentKey,
+                String.format("%s is no longer tracked on %s", pipelineStage, hostname()))));
+        metrics.record(NotificationMetrics.Event.RESOLVED, pipelineName, serviceKey);
+    }
 
+    private static String maskServiceKeys(Route route) {
+        StringBuilder masked = new StringBuilder();
+        for (String serviceKey : route.serviceKeys()) {
+            if (masked.length() > 0) {
+                masked.append(',');
+            }
+            masked.append(NotificationMetrics.maskServiceKey(serviceKey));
+        }
+        return masked.toString();
+    }
+
+    /**
+     * @return true if the notification is for an earlier run of the stage than one already seen, which
+     * means it was overtaken. Notifications without numeric counters are never stale
+     */
+    private boolean isStale(String pipelineStage, GoNotificationMessage message) {
+        long pipelineCounter = counter(message.getPipelineCounter());
+        long stageCounter = counter(message.getStageCounter());
+        if (pipelineCounter < 0 || stageCounter < 0) {
+            return false;
+        }
+
+        long[] latest = latestRuns.get(pipelineStage);
+        if (latest != null && (pipelineCounter < latest[0] || pipelineCounter == latest[0] && stageCounter < latest[1])) {
+            return true;
+        }
+        latestRuns.put(pipelineStage, new long[]{pipelineCounter, stageCounter});
+        return false;
+    }
+
+    private static long counter(String counter) {
+        if (counter == null) {
+            return -1;
+        }
         try {
-            hostname = InetAddress.getLocalHost().getHostName();
-        } catch (UnknownHostException e) {
-            LOGGER.warn("Unable to discern hostname, using blank hostname");
-            hostname = "";
+            return Long.parseLong(counter);
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
-    public void handle(GoNotificationMessage message) throws Exception {
+    /**
+     * @return the jobs that failed in this notification of the stage but not in its last one, with the agent each ran on
+     */
+    private Map<String, String> newlyFailedJobs(String pipelineStage, GoNotificationMessage message) {
+        JobOutcomes outcomes = jobOutcomes.get(pipelineStage);
+        if (outcomes == null) {
+            outcomes = new JobOutcomes();
+            jobOutcomes.put(pipelineStage, outcomes);
+        }
 
-        String pipelineStage = message.getPipelineName() + "-" + message.getStageName();
-        PagerDuty pd;
+        List<String> jobNames = outcomes.update(message);
+        if (jobNames.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> failedJobs = new LinkedHashMap<>();
+        for (String jobName : jobNames) {
+            String agentUuid = message.getJobAgentUuid(jobName);
+            failedJobs.put(jobName, agentUuid == null ? "Failed" : "Failed on agent " + agentUuid);
+        }
+        return failedJobs;
+    }
 
-        // Create an incident when matching pipelines fail
-        if (pipelineApiKeys.containsKey(message.getPipelineName()) && statusesToAlertOn.contains(message.getStageState())) {
-            // TODO: Should we create a new incident for each failure or assume that if we've already created one that we're good?
-            //       If we create multiple incidents it will be more challenging to resolve them after a pass, obviously.
+    /**
+     * @return the same key for every event of a pipeline stage, on every server sharing the namespace
+     */
+    String deterministicIncidentKey(GoNotificationMessage message) {
+        String key = message.getPipelineName() + "/" + message.getStageName();
+        return incidentKeyNamespace.isEmpty() ? key : incidentKeyNamespace + "/" + key;
+    }
 
-            // If we don't already have an open incident for this pipeline/stage
-            if (!currentIncidentKeys.containsKey(pipelineStage)){
-                pd = newPagerDuty(pipelineApiKeys.get(message.getPipelineName()));
+    private void openFlapWindow(final String pipelineStage, FlapWindow window) {
+        if (flapTimer == null) {
+            return;
+        }
+        flapWindows.put(pipelineStage, window);
+        flapTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                closeFlapWindow(pipelineStage, true);
+            }
+        }, flapWindowMs, TimeUnit.MILLISECONDS);
+    }
 
-                String goUrl = getGoCDURL(message);
+    /**
+     * Sends the net change of the pipeline stage during its window, if any, which opens a new window.
+     */
+    private void closeFlapWindow(String pipelineStage, boolean reopen) {
+        synchronized (stageLock(pipelineStage)) {
+            FlapWindow window = flapWindows.remove(pipelineStage);
+            if (window == null) {
+                return;
+            }
 
-                Trigger trigger = new Trigger.Builder(String.format("Failed Build: %s build %s on %s", message.fullyQualifiedJobName(), message.getStageState(), hostname))
-                        .client("GoCD")
-                        .clientUrl(goUrl)
-                        .build();
-                NotifyResult result = pd.notify(trigger);
-                currentIncidentKeys.put(pipelineStage, result.incidentKey());
+            if (window.open == window.sent) {
+                return;
+            }
+            Changes changes = new Changes();
+            try {
+                changeIncidents(window.route, pipelineStage, window.message, window.open, window.failedJobs, false, changes);
+                if (changes.isEmpty()) {
+                    return;
+                }
+                // Not waited for, failed deliveries are logged as they fail
+                if (!changes.batch.isEmpty()) {
+                    deliveries.submit(changes.batch);
+                }
+            } catch (Exception e) {
+                LOGGER.error("Error sending the coalesced state of " + pipelineStage, e);
+                return;
+            }
+            if (reopen) {
+                openFlapWindow(pipelineStage, new FlapWindow(window.open, window.route, window.message));
             }
-        } else if (currentIncidentKeys.containsKey(pipelineStage) && "Passed".equals(message.getStageResult())) {
-            // If that pipeline + stage passes, clear the incident
-            pd = newPagerDuty(pipelineApiKeys.get(message.getPipelineName()));
+        }
+    }
+
+    Object stageLock(String pipelineStage) {
+        int hash = pipelineStage.hashCode();
+        hash ^= (hash >>> 16);
+        return stageLocks[hash & (STAGE_LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Swaps in the routing settings of a new configuration, dropping the clients of service keys
+     * that are no longer configured.
+     *
+     * @throws com.typesafe.config.ConfigException if the routing settings are invalid, the current ones are kept
+     */
+    public void reload(Config config) {
+        RoutingSnapshot snapshot = RoutingSnapshot.fromConfig(config);
+        routing = snapshot;
+
+        pagerDutyClients.keySet().retainAll(snapshot.serviceKeys());
+    }
+
+    RoutingSnapshot routing() {
+        return routing;
+    }
 
-            Resolution resolution = new Resolution.Builder(currentIncidentKeys.get(pipelineStage))
-                    .withDescription(String.format("%s build %s on %s", message.fullyQualifiedJobName(), message.getStageState(), hostname))
-                    .build();
-            pd.notify(resolution);
-            currentIncidentKeys.remove(pipelineStage);
+    PagerDuty pagerDuty(String apiKey) {
+        PagerDuty pd = pagerDutyClients.get(apiKey);
+        if (pd == null) {
+            PagerDuty created = newPagerDuty(apiKey);
+            pd = pagerDutyClients.putIfAbsent(apiKey, created);
+            if (pd == null) {
+                pd = created;
+            }
         }
+        return pd;
     }
 
     protected PagerDuty newPagerDuty(String apiKey) {
-        return PagerDuty.create(apiKey);
+        return PagerDuty.create(apiKey, restAdapter);
     }
 
     private String getGoCDURL(GoNotificationMessage message) throws URISyntaxException, MalformedURLException {
-        URI goURI = new URI("https", hostname, "/go/pipelines/" + message.getPipelineName() + "/" + message.getPipelineCounter() + "/" + message.getStageName() + "/" + message.getStageCounter(),"");
+        String path = "/go/pipelines/" + message.getPipelineName() + "/" + message.getPipelineCounter() + "/" + message.getStageName() + "/" + message.getStageCounter();
+        URI goURI;
+        if (serverUrl != null) {
+            String basePath = serverUrl.getPath() == null ? "" : serverUrl.getPath().replaceAll("/+$", "");
+            goURI = new URI(serverUrl.getScheme(), serverUrl.getAuthority(), basePath + path, null, null);
+        } else {
+            goURI = new URI("https", hostname(), path, "");
+        }
         return goURI.toURL().toString();
     }
 
-    protected void clearCurrentIncidents() {
-        currentIncidentKeys = new HashMap<>();
+    private String hostname() {
+        return serverUrl != null ? serverUrl.getHost() : hostnameResolver.hostname();
+    }
+
+    private static IncidentLog newIncidentLog(Config config) throws IOException {
+        String type = config.getString("pagerduty.incident_store.type");
+        if ("memory".equals(type)) {
+            return IncidentLog.NONE;
+        } else if ("journal".equals(type)) {
+            return new JournalIncidentLog(incidentStoreDirectory(config), config.getInt("pagerduty.incident_store.compact_after"));
+        }
+        throw new IllegalArgumentException("Unknown incident store type: " + type);
+    }
+
+    private PagerDutyTransport newTransport(Config config) {
+        String type = config.getString("pagerduty.http.transport");
+        if ("client".equals(type)) {
+            return new ClientTransport(this);
+        } else if ("async".equals(type)) {
+            try {
+                return AsyncHttpTransport.fromConfig(config);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid PagerDuty base URL: " + config.getString("pagerduty.http.base_url"), e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown transport: " + type);
+    }
+
+    // Undelivered events are kept next to the open incidents they belong to
+    private static Outbox newOutbox(Config config) throws IOException {
+        if ("journal".equals(config.getString("pagerduty.incident_store.type"))) {
+            return new Outbox(incidentStoreDirectory(config), config.getInt("pagerduty.incident_store.compact_after"));
+        }
+        return new Outbox();
+    }
+
+    private static File incidentStoreDirectory(Config config) {
+        String directory = config.getString("pagerduty.incident_store.directory");
+        if (directory.isEmpty()) {
+            directory = System.getProperty("user.home");
+        }
+        return new File(directory);
+    }
+
+    public NotificationMetrics metrics() {
+        return metrics;
+    }
+
+    DeliveryEngine deliveries() {
+        return deliveries;
+    }
+
+    public void close() throws IOException {
+        if (flapTimer != null) {
+            flapTimer.close();
+            // Don't lose a state change that was waiting for its window to close
+            for (String pipelineStage : flapWindows.keySet()) {
+                closeFlapWindow(pipelineStage, false);
+            }
+        }
+        deliveries.close();
+        currentIncidentKeys.close();
+    }
+
+    protected void clearCurrentIncidents() throws IOException {
+        currentIncidentKeys.clear();
+    }
+
+    /**
+     * What one notification, or the close of a flap window, changes in PagerDuty.
+     */
+    private static class Changes {
+        // Handed over together once the notification is handled
+        private final List<Delivery> batch = new ArrayList<>();
+        // Summary incidents, handed over as they change
+        private final List<DeliveryEngine.Batch> summaries = new ArrayList<>();
+        // Incidents of stages failing on their own, which a storm can take over once they're handed over
+        private final List<StormAggregator.Incident> paged = new ArrayList<>();
+
+        private boolean isEmpty() {
+            return batch.isEmpty() && summaries.isEmpty();
+        }
+    }
+
+    /**
+     * The state a pipeline stage has reached since its last change was sent to PagerDuty.
+     */
+    private static class FlapWindow {
+        // Whether PagerDuty was last told the stage is failing
+        private final boolean sent;
+        private boolean open;
+        private Route route;
+        private GoNotificationMessage message;
+        // Jobs that started failing during the window
+        private final Map<String, String> failedJobs = new LinkedHashMap<>();
+
+        private FlapWindow(boolean open, Route route, GoNotificationMessage message) {
+            this.sent = open;
+            this.open = open;
+            this.route = route;
+            this.message = message;
+        }
+
+        private void update(Route route, GoNotificationMessage message, Map<String, String> failedJobs) {
+            if (route != null && route.alertsOn(message.getStageState())) {
+                this.open = true;
+                this.route = route;
+                this.message = message;
+                this.failedJobs.putAll(failedJobs);
+            } else if (open && "Passed".equals(message.getStageResult())) {
+                this.open = false;
+                this.message = message;
+                this.failedJobs.clear();
+            }
+        }
     }
 }
@@ -0,0 +1,42 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.typesafe.config.Config;
+import retrofit.client.Request;
+import retrofit.client.UrlConnectionClient;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client used by every PagerDuty client, with configurable timeouts and keep-alive policy.
+ */
+public class PagerDutyHttpClient extends UrlConnectionClient {
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final boolean keepAlive;
+
+    public PagerDutyHttpClient(int connectTimeoutMs, int readTimeoutMs, boolean keepAlive) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.keepAlive = keepAlive;
+    }
+
+    public static PagerDutyHttpClient fromConfig(Config config) {
+        return new PagerDutyHttpClient(
+                (int) config.getDuration("pagerduty.http.connect_timeout", TimeUnit.MILLISECONDS),
+                (int) config.getDuration("pagerduty.http.read_timeout", TimeUnit.MILLISECONDS),
+                config.getBoolean("pagerduty.http.keep_alive"));
+    }
+
+    @Override
+    protected HttpURLConnection openConnection(Request request) throws IOException {
+        HttpURLConnection connection = super.openConnection(request);
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        if (!keepAlive) {
+            connection.setRequestProperty("Connection", "close");
+        }
+        return connection;
+    }
+}
@@ -0,0 +1,22 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.io.Closeable;
+
+/**
+ * Carries triggers and resolutions to PagerDuty.
+ * <p>
+ * The callback of every event is completed exactly once, possibly before {@code send} returns, and
+ * the events of one service key are sent and completed in the order they were handed over. Once
+ * an event of a key fails, the events of that key already handed over behind it may be failed
+ * without being sent so they can't overtake it.
+ */
+public interface PagerDutyTransport extends Closeable {
+
+    interface Callback {
+        void delivered();
+
+        void failed(Exception e);
+    }
+
+    void send(Delivery delivery, Callback callback);
+}
@@ -0,0 +1,49 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The services a pipeline stage alerts and the stage states it alerts on.
+ */
+public final class Route {
+    private final List<String> serviceKeys;
+    private final Set<String> statuses;
+
+    public Route(String serviceKey, Set<String> statuses) {
+        this(Collections.singletonList(serviceKey), statuses);
+    }
+
+    /**
+     * @param serviceKeys at least one, repeats are dropped
+     */
+    public Route(List<String> serviceKeys, Set<String> statuses) {
+        if (serviceKeys.isEmpty()) {
+            throw new IllegalArgumentException("A route needs a service key");
+        }
+        this.serviceKeys = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(serviceKeys)));
+        this.statuses = Collections.unmodifiableSet(new HashSet<>(statuses));
+    }
+
+    /**
+     * @return the first service key, which the metrics of the route's notifications are counted under
+     */
+    public String serviceKey() {
+        return serviceKeys.get(0);
+    }
+
+    /**
+     * @return every service key alerted, in the order they were configured
+     */
+    public List<String> serviceKeys() {
+        return serviceKeys;
+    }
+
+    public boolean alertsOn(String stageState) {
+        return statuses.contains(stageState);
+    }
+}
@@ -0,0 +1,209 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Routing rules compiled for lookup, the first rule matching a pipeline stage wins.
+ * <p>
+ * Rules are indexed by the literal part of their pipeline pattern: exact names in a hash map and
+ * the literal prefix of globs in a trie, so a lookup only walks the pipeline name once and tests
+ * the few rules whose prefix it passes. The rules left after the pipeline pattern check are cached
+ * per pipeline name, leaving only the group and stage checks for later notifications.
+ */
+public class RouteMatcher {
+    private static final int[] NO_RULES = new int[0];
+    // Dropped wholesale when exceeded, pipelines that are still notifying fill it again
+    private static final int MAX_CACHED_PIPELINES = 50000;
+
+    private final Rule[] rules;
+    private final Map<String, int[]> exactRules = new HashMap<>();
+    private final TrieNode prefixRules = new TrieNode();
+    private final ConcurrentMap<String, int[]> pipelineCache = new ConcurrentHashMap<>();
+
+    public static class Rule {
+        private final Pattern pipeline;
+        private final String pipelineLiteral;
+        private final boolean pipelineExact;
+        private final Pattern group;
+        private final Pattern stage;
+        private final Route route;
+
+        private Rule(Pattern pipeline, String pipelineLiteral, boolean pipelineExact, Pattern group, Pattern stage, Route route) {
+            this.pipeline = pipeline;
+            this.pipelineLiteral = pipelineLiteral;
+            this.pipelineExact = pipelineExact;
+            this.group = group;
+            this.stage = stage;
+            this.route = route;
+        }
+
+        /**
+         * @param pipelineGlob  glob on the pipeline name, {@code *} and {@code ?} are wildcards
+         * @param groupGlob     glob on the pipeline group, or null for any group
+         * @param stageGlob     glob on the stage name, or null for any stage
+         */
+        public static Rule glob(String pipelineGlob, String groupGlob, String stageGlob, Route route) {
+            String literal = literalPrefix(pipelineGlob);
+            boolean exact = literal.length() == pipelineGlob.length();
+            return new Rule(exact ? null : globPattern(pipelineGlob), literal, exact, globPattern(groupGlob), globPattern(stageGlob), route);
+        }
+
+        /**
+         * @param pipelineRegex regular expression the whole pipeline name must match
+         */
+        public static Rule regex(String pipelineRegex, String groupGlob, String stageGlob, Route route) {
+            return new Rule(Pattern.compile(pipelineRegex), "", false, globPattern(groupGlob), globPattern(stageGlob), route);
+        }
+
+        public Route route() {
+            return route;
+        }
+
+        private boolean matchesPipeline(String pipelineName) {
+            return pipelineExact ? pipelineLiteral.equals(pipelineName) : matches(pipeline, pipelineName);
+        }
+
+        private boolean matchesGroupAndStage(String groupName, String stageName) {
+            return matches(group, groupName) && matches(stage, stageName);
+        }
+
+        private static boolean matches(Pattern pattern, String value) {
+            return pattern == null || (value != null && pattern.matcher(value).matches());
+        }
+    }
+
+    private static class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        private int[] rules = NO_RULES;
+    }
+
+    public RouteMatcher(List<Rule> rules) {
+        this.rules = rules.toArray(new Rule[rules.size()]);
+        for (int i = 0; i < this.rules.length; i++) {
+            Rule rule = this.rules[i];
+            if (rule.pipelineExact) {
+                int[] existing = exactRules.get(rule.pipelineLiteral);
+                exactRules.put(rule.pipelineLiteral, append(existing == null ? NO_RULES : existing, i));
+            } else {
+                TrieNode node = prefixRules;
+                for (int c = 0; c < rule.pipelineLiteral.length(); c++) {
+                    Character ch = rule.pipelineLiteral.charAt(c);
+                    TrieNode child = node.children.get(ch);
+                    if (child == null) {
+                        child = new TrieNode();
+                        node.children.put(ch, child);
+                    }
+                    node = child;
+                }
+                node.rules = append(node.rules, i);
+            }
+        }
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public List<Route> routes() {
+        List<Route> routes = new ArrayList<>(rules.length);
+        for (Rule rule : rules) {
+            routes.add(rule.route);
+        }
+        return routes;
+    }
+
+    /**
+     * @return the route of the first rule matching the pipeline stage, or null if none does
+     */
+    public Route match(String pipelineName, String groupName, String stageName) {
+        if (rules.length == 0) {
+            return null;
+        }
+
+        int[] candidates = pipelineCache.get(pipelineName);
+        if (candidates == null) {
+            candidates = rulesMatchingPipeline(pipelineName);
+            if (pipelineCache.size() >= MAX_CACHED_PIPELINES) {
+                pipelineCache.clear();
+            }
+            pipelineCache.put(pipelineName, candidates);
+        }
+
+        for (int index : candidates) {
+            Rule rule = rules[index];
+            if (rule.matchesGroupAndStage(groupName, stageName)) {
+                return rule.route;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return indexes, in rule order, of the rules whose pipeline pattern matches
+     */
+    int[] rulesMatchingPipeline(String pipelineName) {
+        int[] exact = exactRules.get(pipelineName);
+        int[] candidates = exact == null ? NO_RULES : exact.clone();
+
+        TrieNode node = prefixRules;
+        int depth = 0;
+        while (node != null) {
+            for (int index : node.rules) {
+                if (rules[index].matchesPipeline(pipelineName)) {
+                    candidates = append(candidates, index);
+                }
+            }
+            node = depth < pipelineName.length() ? node.children.get(pipelineName.charAt(depth)) : null;
+            depth++;
+        }
+
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] appended = Arrays.copyOf(array, array.length + 1);
+        appended[array.length] = value;
+        return appended;
+    }
+
+    private static String literalPrefix(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                return glob.substring(0, i);
+            }
+        }
+        return glob;
+    }
+
+    private static Pattern globPattern(String glob) {
+        if (glob == null || "*".equals(glob)) {
+            return null;
+        }
+
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
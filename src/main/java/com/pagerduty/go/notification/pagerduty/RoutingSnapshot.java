@@ -0,0 +1,136 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigList;
+import com.typesafe.config.ConfigUtil;
+import com.typesafe.config.ConfigValue;
+import com.typesafe.config.ConfigValueType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Immutable view of which pipeline stages alert which services and on what statuses. A new snapshot
+ * is built for every configuration (re)load and swapped in whole.
+ * <p>
+ * Pipelines listed in {@code pipeline_api_keys} are looked up by name, every other pipeline goes
+ * through the {@code routes} rules in order.
+ */
+public final class RoutingSnapshot {
+    private final Map<String, Route> pipelineRoutes;
+    private final RouteMatcher routeMatcher;
+
+    RoutingSnapshot(Map<String, List<String>> pipelineApiKeys, Set<String> statusesToAlertOn, RouteMatcher routeMatcher) {
+        Map<String, Route> routes = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : pipelineApiKeys.entrySet()) {
+            routes.put(entry.getKey(), new Route(entry.getValue(), statusesToAlertOn));
+        }
+        this.pipelineRoutes = routes;
+        this.routeMatcher = routeMatcher;
+    }
+
+    /**
+     * @throws ConfigException if the routing settings are missing or malformed
+     */
+    public static RoutingSnapshot fromConfig(Config config) {
+        // Load API key list pipeline_name=api_key, or pipeline_name=[api_key, ...]
+        Map<String, List<String>> apiKeys = new HashMap<>();
+        Config apiKeyConfig = config.getConfig("pagerduty.pipeline_api_keys");
+        for (Map.Entry<String, ConfigValue> entry : apiKeyConfig.entrySet()) {
+            // Unquoted pipeline names containing dots come back as paths of several elements, quoted ones in quotes
+            String pipelineName = joinElements(ConfigUtil.splitPath(entry.getKey()));
+            apiKeys.put(pipelineName, serviceKeys(entry.getValue(), "pagerduty.pipeline_api_keys." + entry.getKey()));
+        }
+
+        Set<String> statusesToAlertOn = new HashSet<>(config.getStringList("pagerduty.statuses_to_alert"));
+
+        List<RouteMatcher.Rule> rules = new ArrayList<>();
+        for (Config routeConfig : config.getConfigList("pagerduty.routes")) {
+            rules.add(ruleFromConfig(routeConfig, statusesToAlertOn));
+        }
+
+        return new RoutingSnapshot(apiKeys, statusesToAlertOn, new RouteMatcher(rules));
+    }
+
+    private static RouteMatcher.Rule ruleFromConfig(Config routeConfig, Set<String> statusesToAlertOn) {
+        Set<String> statuses = routeConfig.hasPath("statuses") ? new HashSet<>(routeConfig.getStringList("statuses")) : statusesToAlertOn;
+        Route route = new Route(serviceKeys(routeConfig.getValue("service_key"), "pagerduty.routes.service_key"), statuses);
+        String group = routeConfig.hasPath("group") ? routeConfig.getString("group") : null;
+        String stage = routeConfig.hasPath("stage") ? routeConfig.getString("stage") : null;
+
+        if (routeConfig.hasPath("pipeline") == routeConfig.hasPath("pipeline_regex")) {
+            throw new ConfigException.BadValue(routeConfig.origin(), "pagerduty.routes", "Each route needs exactly one of pipeline or pipeline_regex");
+        }
+        if (routeConfig.hasPath("pipeline")) {
+            return RouteMatcher.Rule.glob(routeConfig.getString("pipeline"), group, stage, route);
+        }
+        try {
+            return RouteMatcher.Rule.regex(routeConfig.getString("pipeline_regex"), group, stage, route);
+        } catch (PatternSyntaxException e) {
+            throw new ConfigException.BadValue(routeConfig.origin(), "pagerduty.routes", e.getMessage());
+        }
+    }
+
+    private static String joinElements(List<String> elements) {
+        StringBuilder joined = new StringBuilder();
+        for (String element : elements) {
+            if (joined.length() > 0) {
+                joined.append('.');
+            }
+            joined.append(element);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * @return the service key of a string, or the service keys of a non-empty list of strings
+     */
+    private static List<String> serviceKeys(ConfigValue value, String path) {
+        if (value.valueType() == ConfigValueType.STRING) {
+            return Collections.singletonList(value.unwrapped().toString());
+        }
+        if (value.valueType() != ConfigValueType.LIST) {
+            throw new ConfigException.WrongType(value.origin(), path, "STRING or LIST", value.valueType().name());
+        }
+        List<String> serviceKeys = new ArrayList<>();
+        for (ConfigValue element : (ConfigList) value) {
+            if (element.valueType() != ConfigValueType.STRING) {
+                throw new ConfigException.WrongType(element.origin(), path, "list of STRING", "list of " + element.valueType().name());
+            }
+            serviceKeys.add(element.unwrapped().toString());
+        }
+        if (serviceKeys.isEmpty()) {
+            throw new ConfigException.BadValue(value.origin(), path, "At least one service key is needed");
+        }
+        return serviceKeys;
+    }
+
+    /**
+     * @return where the pipeline stage alerts, or null if it doesn't
+     */
+    public Route route(String pipelineName, String groupName, String stageName) {
+        Route route = pipelineRoutes.get(pipelineName);
+        if (route != null) {
+            return route;
+        }
+        return routeMatcher.match(pipelineName, groupName, stageName);
+    }
+
+    public Set<String> serviceKeys() {
+        Set<String> serviceKeys = new HashSet<>();
+        for (Route route : pipelineRoutes.values()) {
+            serviceKeys.addAll(route.serviceKeys());
+        }
+        for (Route route : routeMatcher.routes()) {
+            serviceKeys.addAll(route.serviceKeys());
+        }
+        return serviceKeys;
+    }
+}
@@ -0,0 +1,47 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands out one shared {@code <pipeline>-<stage>} key per pipeline stage, so that a notification
+ * finds its stage's key with two lookups instead of concatenating a new string, and every map keyed
+ * by stage holds the same instance.
+ * <p>
+ * Once it holds too many, the keys of the least recently notified pipelines are forgotten, so the
+ * stages of deleted pipelines don't pile up and the busy ones keep their keys.
+ */
+class StageKeys {
+    // Least recently used pipeline first
+    private final LinkedHashMap<String, Map<String, String>> keys = new LinkedHashMap<>(16, 0.75f, true);
+    private int size;
+    private final int maxSize;
+
+    StageKeys(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    synchronized String key(String pipelineName, String stageName) {
+        Map<String, String> stages = keys.get(pipelineName);
+        if (stages == null) {
+            stages = new HashMap<>(4);
+            keys.put(pipelineName, stages);
+        }
+        String key = stages.get(stageName);
+        if (key != null) {
+            return key;
+        }
+
+        key = pipelineName + "-" + stageName;
+        stages.put(stageName, key);
+        size++;
+        Iterator<Map<String, String>> eldest = keys.values().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            size -= eldest.next().size();
+            eldest.remove();
+        }
+        return key;
+    }
+}
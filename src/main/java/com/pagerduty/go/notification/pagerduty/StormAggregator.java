@@ -0,0 +1,283 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Notices when many pipeline stages of one service key start failing at once, so they can share a
+ * single summary incident instead of paging once each.
+ * <p>
+ * Each service key counts its new failures in a sliding window of 16 buckets, and remembers which
+ * of the stages that failed within the window are still failing on their own incident. A failure
+ * that takes the count to the threshold opens a storm on the key, and those stages move under it
+ * along with the failure. Every later failure within the window joins it too, and it stays open
+ * until all of its stages have passed again. Failures after the window page on their own again,
+ * or open another storm.
+ */
+class StormAggregator {
+    private static final int BUCKETS = 16;
+
+    private final int threshold;
+    private final long windowMs;
+    private final long bucketMs;
+    private final ConcurrentMap<String, KeyWindow> keys = new ConcurrentHashMap<>();
+
+    /**
+     * The incident a stage failing on its own was paged with.
+     */
+    static class Incident {
+        private final String serviceKey;
+        private final String pipelineStage;
+        private final String pipelineName;
+        private final String incidentKey;
+        private final long failedAt;
+
+        Incident(String serviceKey, String pipelineStage, String pipelineName, String incidentKey, long failedAt) {
+            this.serviceKey = serviceKey;
+            this.pipelineStage = pipelineStage;
+            this.pipelineName = pipelineName;
+            this.incidentKey = incidentKey;
+            this.failedAt = failedAt;
+        }
+
+        String pipelineStage() {
+            return pipelineStage;
+        }
+
+        String pipelineName() {
+            return pipelineName;
+        }
+
+        String incidentKey() {
+            return incidentKey;
+        }
+    }
+
+    /**
+     * A summary incident and the pipeline stages still failing under it.
+     */
+    static class Storm {
+        private final String serviceKey;
+        private final String incidentKey;
+        private final long openedAt;
+        // Guarded by the key's window, like the rest of the storm's state
+        private final Set<String> members = new HashSet<>();
+        private int joined;
+        private final List<Incident> moved = new ArrayList<>();
+        private volatile boolean closed;
+        private final AtomicBoolean announced = new AtomicBoolean();
+        private final AtomicBoolean resolved = new AtomicBoolean();
+
+        private Storm(String serviceKey, long openedAt) {
+            this.serviceKey = serviceKey;
+            this.incidentKey = "storm-" + UUID.randomUUID();
+            this.openedAt = openedAt;
+        }
+
+        String serviceKey() {
+            return serviceKey;
+        }
+
+        String incidentKey() {
+            return incidentKey;
+        }
+
+        /**
+         * @return the first time only, for whoever sends the summary incident, the incidents of the
+         * stages that moved under it when it opened. Null afterwards
+         */
+        List<Incident> announce() {
+            return announced.compareAndSet(false, true) ? moved : null;
+        }
+
+        /**
+         * @return whether the storm's last stage has left it
+         */
+        boolean closed() {
+            return closed;
+        }
+
+        /**
+         * @return true once the storm's last stage has left it, and then only the first time, for whoever
+         * resolves the summary incident
+         */
+        boolean resolve() {
+            return closed && resolved.compareAndSet(false, true);
+        }
+
+        /**
+         * @return how many stages have been under the storm so far
+         */
+        int joined() {
+            return joined;
+        }
+    }
+
+    /**
+     * The failures of one service key over the last window, and its storms.
+     */
+    private static class KeyWindow {
+        private final int[] counts = new int[BUCKETS];
+        private long bucket;
+        private int total;
+        // The stages that failed within the window and are still failing on their own, oldest first
+        private final LinkedHashMap<String, Incident> paged = new LinkedHashMap<>();
+        // The storm each stage is failing under
+        private final Map<String, Storm> stormOf = new HashMap<>();
+        // The storm failures still join, null once its window has passed
+        private Storm storm;
+
+        private int add(long bucket) {
+            if (bucket - this.bucket >= BUCKETS) {
+                Arrays.fill(counts, 0);
+                total = 0;
+                this.bucket = bucket;
+            }
+            while (this.bucket < bucket) {
+                this.bucket++;
+                int expired = (int) (this.bucket % BUCKETS);
+                total -= counts[expired];
+                counts[expired] = 0;
+            }
+            counts[(int) (bucket % BUCKETS)]++;
+            return ++total;
+        }
+
+        private void join(Storm storm, String pipelineStage) {
+            if (storm.members.add(pipelineStage)) {
+                storm.joined++;
+            }
+            stormOf.put(pipelineStage, storm);
+        }
+    }
+
+    /**
+     * @param threshold new failures of one service key within the window that open a storm
+     */
+    StormAggregator(int threshold, long windowMs) {
+        this.threshold = threshold;
+        this.windowMs = windowMs;
+        this.bucketMs = Math.max(1, windowMs / BUCKETS);
+    }
+
+    /**
+     * Counts a new failure of the pipeline stage.
+     *
+     * @param own the incident the stage is paged with if it doesn't join a storm
+     * @return the storm the stage joined, or null if its service key has no storm and the stage is
+     * to page on its own
+     */
+    Storm failed(Incident own) {
+        KeyWindow window = window(own.serviceKey);
+        synchronized (window) {
+            int failures = window.add(own.failedAt / bucketMs);
+            expire(window, own.failedAt);
+            if (window.storm == null) {
+                if (failures < threshold) {
+                    return null;
+                }
+                window.storm = new Storm(own.serviceKey, own.failedAt);
+                for (Incident paged : window.paged.values()) {
+                    window.join(window.storm, paged.pipelineStage);
+                    window.storm.moved.add(paged);
+                }
+                window.paged.clear();
+            }
+            window.join(window.storm, own.pipelineStage);
+            return window.storm;
+        }
+    }
+
+    /**
+     * Remembers a stage that failed on its own, once its trigger is on its way, so that the next storm
+     * can take over its incident. A storm opened since it failed takes it over straight away.
+     *
+     * @return the storm the stage moved under, or null
+     */
+    Storm paged(Incident own) {
+        KeyWindow window = window(own.serviceKey);
+        synchronized (window) {
+            expire(window, System.currentTimeMillis());
+            if (window.storm == null) {
+                window.paged.put(own.pipelineStage, own);
+                return null;
+            }
+            window.join(window.storm, own.pipelineStage);
+            return window.storm;
+        }
+    }
+
+    private KeyWindow window(String serviceKey) {
+        KeyWindow window = keys.get(serviceKey);
+        if (window == null) {
+            KeyWindow created = new KeyWindow();
+            window = keys.putIfAbsent(serviceKey, created);
+            if (window == null) {
+                window = created;
+            }
+        }
+        return window;
+    }
+
+    // Forgets the storm and the failures the window has passed
+    private void expire(KeyWindow window, long now) {
+        if (window.storm != null && now - window.storm.openedAt >= windowMs) {
+            window.storm = null;
+        }
+        Iterator<Incident> oldest = window.paged.values().iterator();
+        while (oldest.hasNext() && now - oldest.next().failedAt >= windowMs) {
+            oldest.remove();
+        }
+    }
+
+    /**
+     * @return the stages still failing under the storm
+     */
+    List<String> members(Storm storm) {
+        synchronized (keys.get(storm.serviceKey)) {
+            List<String> members = new ArrayList<>(storm.members);
+            Collections.sort(members);
+            return members;
+        }
+    }
+
+    /**
+     * Takes a passing stage, or one no longer tracked, out of its storm. One failing on its own is
+     * no longer moved under the next storm.
+     *
+     * @return the storm the stage was failing under, closed if that was its last stage, or null
+     */
+    Storm passed(String serviceKey, String pipelineStage) {
+        KeyWindow window = keys.get(serviceKey);
+        if (window == null) {
+            return null;
+        }
+        synchronized (window) {
+            window.paged.remove(pipelineStage);
+            Storm storm = window.stormOf.remove(pipelineStage);
+            if (storm == null) {
+                return null;
+            }
+            storm.members.remove(pipelineStage);
+            if (storm.members.isEmpty()) {
+                if (window.storm == storm) {
+                    window.storm = null;
+                }
+                storm.closed = true;
+            }
+            return storm;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks after a delay, to within one tick, at a constant cost per task however many are
+ * pending.
+ * <p>
+ * Tasks are hashed by their deadline into a ring of buckets, one per tick, that a single thread
+ * walks around. Tasks further away than one turn of the ring wait in their bucket for the
+ * remaining turns. Scheduling only appends to a queue, which the thread moves into the ring.
+ */
+public class TimerWheel implements Closeable {
+    private static final Logger LOGGER = Logger.getLoggerFor(TimerWheel.class);
+
+    private final long tickNanos;
+    private final List<List<Timeout>> buckets;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;
+
+    private static class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    /**
+     * @param ticksPerWheel rounded up to a power of two
+     */
+    public TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel, 1) * 2 - 1);
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), 1);
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new LinkedList<Timeout>());
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                turn();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        scheduled.add(new Timeout(task, System.nanoTime() + unit.toNanos(delay)));
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void turn() {
+        while (running) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            transferScheduled();
+            expire(buckets.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            long ticks = Math.max((timeout.deadlineNanos - startNanos) / tickNanos, tick);
+            timeout.remainingRounds = (ticks - tick) / buckets.size();
+            buckets.get((int) (ticks & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        Iterator<Timeout> timeouts = bucket.iterator();
+        List<Timeout> expired = new ArrayList<>();
+        while (timeouts.hasNext()) {
+            Timeout timeout = timeouts.next();
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                timeouts.remove();
+                expired.add(timeout);
+            }
+        }
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Error running a scheduled task", e);
+            }
+        }
+    }
+}
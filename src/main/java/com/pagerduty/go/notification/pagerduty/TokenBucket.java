@@ -0,0 +1,29 @@
+package com.pagerduty.go.notification.pagerduty;
+
+/**
+ * Allows calls at a steady rate with room for a burst. Not thread-safe, callers guard it with
+ * their own lock.
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(double tokensPerSecond, int burst, long nowNanos) {
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = nowNanos;
+    }
+
+    public boolean tryAcquire(long nowNanos) {
+        tokens = Math.min(burst, tokens + (nowNanos - refilledAt) * tokensPerNano);
+        refilledAt = nowNanos;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events tracing each notification through the plugin, so that a recording shows
+ * why a single alert was slow or missing. Every event carries the fully qualified job name.
+ * <p>
+ * The plugin is built for Java 7, so the event types are defined at runtime through
+ * {@code jdk.jfr.EventFactory}. On a JVM without it they do nothing. While no recording is running
+ * {@link #begin()} only checks whether the type is enabled, and callers check
+ * {@link Span#isRecording()} before working out the values of the event.
+ */
+enum TraceEvent {
+    PARSE("Parse", "Stage notification parsed",
+            "jobName"),
+    ROUTING("Routing Decision", "Stage notification routed and decided on",
+            "jobName", "serviceKey", "stageState", "stageResult", "decision"),
+    STORE_LOOKUP("Incident Store Lookup", "Open incident of the pipeline stage looked up",
+            "jobName", "pipelineStage", "incidentKey"),
+    PAGERDUTY_CALL("PagerDuty Call", "Trigger or resolution sent to PagerDuty",
+            "jobName", "type", "serviceKey", "incidentKey", "outcome");
+
+    private static final String NAME_PREFIX = "com.pagerduty.go.notification.";
+
+    private final String[] fields;
+    // Null when flight recording isn't available
+    private final Object factory;
+    private final MethodHandle isEnabled;
+
+    TraceEvent(String label, String description, String... fields) {
+        this.fields = fields;
+        Object eventFactory = null;
+        MethodHandle enabled = null;
+        if (Jfr.AVAILABLE) {
+            try {
+                eventFactory = Jfr.create(NAME_PREFIX + label.replace(" ", ""), label, description, fields);
+                Object eventType = Jfr.getEventType.invoke(eventFactory);
+                enabled = MethodHandles.publicLookup().unreflect(Jfr.isEnabled).bindTo(eventType)
+                        .asType(MethodType.methodType(boolean.class));
+            } catch (Exception | LinkageError e) {
+                Jfr.LOGGER.warn("Unable to define the flight recorder event " + label + ", it won't be recorded", e);
+                eventFactory = null;
+                enabled = null;
+            }
+        }
+        this.factory = eventFactory;
+        this.isEnabled = enabled;
+    }
+
+    /**
+     * Starts timing an event, committed with {@link Span#commit}.
+     *
+     * @return a span that records nothing when the event isn't being recorded
+     */
+    Span begin() {
+        if (isEnabled == null || !enabled()) {
+            return Span.OFF;
+        }
+        try {
+            Object event = Jfr.newEvent.invoke(factory);
+            Jfr.begin.invoke(event);
+            return new Span(this, event);
+        } catch (Exception e) {
+            return Span.OFF;
+        }
+    }
+
+    private boolean enabled() {
+        try {
+            return (boolean) isEnabled.invokeExact();
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    static class Span {
+        static final Span OFF = new Span(null, null);
+
+        private final TraceEvent type;
+        private final Object event;
+
+        private Span(TraceEvent type, Object event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        boolean isRecording() {
+            return event != null;
+        }
+
+        /**
+         * Ends the event and records it with the values of its fields, in the order the type lists them.
+         */
+        void commit(String... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < type.fields.length && i < values.length; i++) {
+                    Jfr.set.invoke(event, i, values[i]);
+                }
+                Jfr.commit.invoke(event);
+            } catch (Exception e) {
+                Jfr.LOGGER.debug("Unable to record a flight recorder event", e);
+            }
+        }
+    }
+
+    /**
+     * The parts of jdk.jfr the events are defined and recorded through, looked up once.
+     */
+    private static class Jfr {
+        private static final Logger LOGGER = Logger.getLoggerFor(TraceEvent.class);
+        private static final String[] CATEGORY = {"GoCD", "PagerDuty Notifications"};
+        private static final boolean AVAILABLE;
+        private static Constructor<?> annotationElement;
+        private static Constructor<?> valueDescriptor;
+        private static Method createFactory;
+        private static Method getEventType;
+        private static Method isEnabled;
+        private static Method newEvent;
+        private static Method begin;
+        private static Method set;
+        private static Method commit;
+        private static Class<? extends Annotation> nameAnnotation;
+        private static Class<? extends Annotation> labelAnnotation;
+        private static Class<? extends Annotation> descriptionAnnotation;
+        private static Class<? extends Annotation> categoryAnnotation;
+        private static Class<? extends Annotation> stackTraceAnnotation;
+
+        static {
+            boolean available;
+            try {
+                Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+                valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+                createFactory = factoryClass.getMethod("create", List.class, List.class);
+                getEventType = factoryClass.getMethod("getEventType");
+                isEnabled = eventTypeClass.getMethod("isEnabled");
+                newEvent = factoryClass.getMethod("newEvent");
+                begin = eventClass.getMethod("begin");
+                set = eventClass.getMethod("set", int.class, Object.class);
+                commit = eventClass.getMethod("commit");
+                nameAnnotation = annotation("jdk.jfr.Name");
+                labelAnnotation = annotation("jdk.jfr.Label");
+                descriptionAnnotation = annotation("jdk.jfr.Description");
+                categoryAnnotation = annotation("jdk.jfr.Category");
+                stackTraceAnnotation = annotation("jdk.jfr.StackTrace");
+                available = true;
+            } catch (Exception | LinkageError e) {
+                available = false;
+            }
+            AVAILABLE = available;
+        }
+
+        private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+            return Class.forName(name).asSubclass(Annotation.class);
+        }
+
+        private static Object create(String name, String label, String description, String[] fields) throws Exception {
+            List<Object> annotations = Arrays.asList(
+                    annotationElement.newInstance(nameAnnotation, name),
+                    annotationElement.newInstance(labelAnnotation, label),
+                    annotationElement.newInstance(descriptionAnnotation, description),
+                    annotationElement.newInstance(categoryAnnotation, CATEGORY),
+                    // The stack of a notification is always the same, and costly to record
+                    annotationElement.newInstance(stackTraceAnnotation, false));
+            List<Object> values = new ArrayList<>();
+            for (String field : fields) {
+                values.add(valueDescriptor.newInstance(String.class, field, Collections.emptyList()));
+            }
+            return createFactory.invoke(null, annotations, values);
+        }
+    }
+}
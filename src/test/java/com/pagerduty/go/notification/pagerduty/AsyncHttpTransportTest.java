@@ -0,0 +1,116 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public class AsyncHttpTransportTest {
+    private HttpServer server;
+    private final List<Map<String, String>> events = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+    private volatile int status = 200;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        events.clear();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(AsyncHttpTransport.EVENTS_PATH, new HttpHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, String> event = new Gson().fromJson(read(exchange.getRequestBody()), Map.class);
+                events.add(event);
+                byte[] response = ("{\"status\":\"success\",\"message\":\"Event processed\",\"incident_key\":\"" + event.get("incident_key") + "\"}")
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testEventsArePostedToTheConfiguredEndpoint() throws Exception {
+        PagerDutyHandler handler = new PagerDutyHandler(config());
+        handler.clearCurrentIncidents();
+
+        handler.handle(getTestMessage("/goMessageFailure1.json"));
+        handler.handle(getTestMessage("/goMessagePassed1.json"));
+        // Waits for the events handed to the transport
+        handler.close();
+
+        Assert.assertEquals(events.size(), 2);
+        Assert.assertEquals(events.get(0).get("event_type"), "trigger");
+        Assert.assertEquals(events.get(0).get("service_key"), "API_KEY_1");
+        Assert.assertEquals(events.get(0).get("client"), "GoCD");
+        Assert.assertEquals(events.get(1).get("event_type"), "resolve");
+        Assert.assertEquals(events.get(1).get("incident_key"), events.get(0).get("incident_key"));
+    }
+
+    @Test
+    public void testRejectedEventsAreKeptForRetry() throws Exception {
+        status = 500;
+        PagerDutyHandler handler = new PagerDutyHandler(config());
+        handler.clearCurrentIncidents();
+
+        handler.handle(getTestMessage("/goMessageFailure1.json"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handler.metrics().getTotals().getFailed() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(handler.deliveries().pendingCount(), 1);
+        Assert.assertEquals(handler.metrics().getTotals().getFailed(), 1);
+        handler.close();
+    }
+
+    private Config config() {
+        return ConfigFactory.parseString("pagerduty { http { transport = async, base_url = \"http://127.0.0.1:" + server.getAddress().getPort() + "\" }, "
+                + "delivery.retry_interval = 1h }")
+                .withFallback(ConfigFactory.load("configReferenceTest.conf"));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    GoNotificationMessage getTestMessage(String filename) throws URISyntaxException, IOException {
+        String json = new String(Files.readAllBytes(Paths.get(getClass().getResource(filename).toURI())), StandardCharsets.UTF_8);
+        return new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(json, GoNotificationMessage.class);
+    }
+}
@@ -0,0 +1,137 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BoundedIncidentStoreTest {
+
+    @Test
+    public void testLeastRecentlyNotifiedIncidentIsEvictedWhenFull() throws Exception {
+        RecordingLog log = new RecordingLog();
+        RecordingListener listener = new RecordingListener();
+        BoundedIncidentStore store = new BoundedIncidentStore(log, 2, 0, listener);
+
+        store.put("Pipeline_1-Compile", "incident-1", "Pipeline_1", "KEY");
+        store.put("Pipeline_2-Compile", "incident-2", "Pipeline_2", "KEY");
+        // Notified again, so Pipeline_2 is now the least recent
+        Assert.assertEquals(store.get("Pipeline_1-Compile"), "incident-1");
+        store.put("Pipeline_3-Compile", "incident-3", "Pipeline_3", "KEY");
+
+        Assert.assertEquals(listener.evicted, Arrays.asList("Pipeline_2-Compile incident-2 Pipeline_2 KEY"));
+        Assert.assertEquals(store.size(), 2);
+        Assert.assertNull(store.get("Pipeline_2-Compile"));
+        Assert.assertEquals(log.changes, Arrays.asList("+Pipeline_1-Compile", "+Pipeline_2-Compile", "+Pipeline_3-Compile", "-Pipeline_2-Compile"));
+    }
+
+    @Test
+    public void testIncidentsExpireAfterTheirStageIsIdleForTheTtl() throws Exception {
+        RecordingLog log = new RecordingLog();
+        log.recovered.put("Recovered-Compile", "incident-0");
+        RecordingListener listener = new RecordingListener();
+        BoundedIncidentStore store = new BoundedIncidentStore(log, 100, 200, listener);
+
+        store.put("Pipeline_1-Compile", "incident-1", "Pipeline_1", "KEY");
+        store.put("Pipeline_2-Compile", "incident-2", "Pipeline_2", "KEY");
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(100);
+            store.get("Pipeline_1-Compile");
+        }
+        // Any lookup evicts what has expired by then
+        Assert.assertNull(store.get("Pipeline_3-Compile"));
+
+        // Recovered incidents don't know their service key
+        Assert.assertEquals(listener.evicted, Arrays.asList("Recovered-Compile incident-0 null null", "Pipeline_2-Compile incident-2 Pipeline_2 KEY"));
+        Assert.assertEquals(store.incidents().keySet(), Collections.singleton("Pipeline_1-Compile"));
+        Assert.assertTrue(log.changes.containsAll(Arrays.asList("-Recovered-Compile", "-Pipeline_2-Compile")));
+        Assert.assertEquals(store.get("Pipeline_1-Compile"), "incident-1");
+    }
+
+    @Test
+    public void testLogIsCompactedFromTheStoresIncidents() throws Exception {
+        RecordingLog log = new RecordingLog();
+        log.compactAfter = 3;
+        BoundedIncidentStore store = new BoundedIncidentStore(log, 100, 0, new RecordingListener());
+
+        store.put("Pipeline_1-Compile", "incident-1");
+        store.put("Pipeline_2-Compile", "incident-2");
+        store.remove("Pipeline_1-Compile");
+
+        Assert.assertEquals(log.compacted, Collections.singletonMap("Pipeline_2-Compile", "incident-2"));
+    }
+
+    @Test
+    public void testStageKeysAreShared() {
+        StageKeys keys = new StageKeys(2);
+        String key = keys.key("Pipeline_1", "Compile");
+        Assert.assertEquals(key, "Pipeline_1-Compile");
+        Assert.assertSame(keys.key(new String("Pipeline_1"), new String("Compile")), key);
+        String other = keys.key("Pipeline_2", "Compile");
+        keys.key("Pipeline_1", "Compile");
+        // Full, so only the least recently used pipeline is forgotten
+        Assert.assertEquals(keys.key("Pipeline_3", "Compile"), "Pipeline_3-Compile");
+        Assert.assertSame(keys.key(new String("Pipeline_1"), new String("Compile")), key);
+        Assert.assertNotSame(keys.key(new String("Pipeline_2"), new String("Compile")), other);
+    }
+
+    private static class RecordingLog implements IncidentLog {
+        private final Map<String, String> recovered = new HashMap<>();
+        private final List<String> changes = new ArrayList<>();
+        private int compactAfter = Integer.MAX_VALUE;
+        private Map<String, String> compacted;
+
+        @Override
+        public Map<String, String> recovered() {
+            return recovered;
+        }
+
+        @Override
+        public void put(String pipelineStage, String incidentKey) {
+            changes.add("+" + pipelineStage);
+        }
+
+        @Override
+        public void remove(String pipelineStage) {
+            changes.add("-" + pipelineStage);
+        }
+
+        @Override
+        public void clear() {
+            changes.clear();
+        }
+
+        @Override
+        public boolean needsCompaction() {
+            return changes.size() >= compactAfter;
+        }
+
+        @Override
+        public void compact(Collection<? extends Map.Entry<String, String>> incidents) {
+            compacted = new HashMap<>();
+            for (Map.Entry<String, String> incident : incidents) {
+                compacted.put(incident.getKey(), incident.getValue());
+            }
+            changes.clear();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class RecordingListener implements BoundedIncidentStore.EvictionListener {
+        private final List<String> evicted = new ArrayList<>();
+
+        @Override
+        public void evicted(String pipelineStage, String incidentKey, String pipelineName, String serviceKey) {
+            evicted.add(pipelineStage + " " + incidentKey + " " + pipelineName + " " + serviceKey);
+        }
+    }
+}
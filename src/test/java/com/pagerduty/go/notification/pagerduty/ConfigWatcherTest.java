@@ -0,0 +1,86 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class ConfigWatcherTest {
+    private File directory;
+    private File configFile;
+    private Config defaultConfig;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("pagerduty-config").toFile();
+        configFile = new File(directory, "pagerduty-notify.conf");
+        defaultConfig = ConfigFactory.parseString("pagerduty.incident_store.type = memory").withFallback(ConfigFactory.load());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testChangedConfigIsSwappedIn() throws Exception {
+        write("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY1 } }");
+        PagerDutyHandler handler = new PagerDutyHandler(ConfigFactory.parseFile(configFile).withFallback(defaultConfig));
+        Assert.assertNull(serviceKey(handler, "Pipeline_2"));
+
+        ConfigWatcher watcher = new ConfigWatcher(configFile, defaultConfig, handler);
+        watcher.start();
+        try {
+            write("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY1, Pipeline_2 = APIKEY2 }, statuses_to_alert = [Failed, Cancelled] }");
+
+            long deadline = System.currentTimeMillis() + 20000;
+            while (serviceKey(handler, "Pipeline_2") == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(serviceKey(handler, "Pipeline_2"), "APIKEY2");
+            Assert.assertTrue(handler.routing().route("Pipeline_2", null, "Compile").alertsOn("Cancelled"));
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testInvalidConfigKeepsPreviousSnapshot() throws Exception {
+        write("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY1 } }");
+        PagerDutyHandler handler = new PagerDutyHandler(ConfigFactory.parseFile(configFile).withFallback(defaultConfig));
+        RoutingSnapshot before = handler.routing();
+        ConfigWatcher watcher = new ConfigWatcher(configFile, defaultConfig, handler);
+
+        write("pagerduty { pipeline_api_keys { Pipeline_1 = ");
+        Assert.assertFalse(watcher.reload());
+        Assert.assertSame(handler.routing(), before);
+
+        // Nested objects are pipeline names with dots, but a service key has to be a string
+        write("pagerduty { pipeline_api_keys { Pipeline_1 = 42 } }");
+        Assert.assertFalse(watcher.reload());
+        Assert.assertSame(handler.routing(), before);
+
+        write("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY3 } }");
+        Assert.assertTrue(watcher.reload());
+        Assert.assertEquals(serviceKey(handler, "Pipeline_1"), "APIKEY3");
+        watcher.close();
+    }
+
+    private String serviceKey(PagerDutyHandler handler, String pipelineName) {
+        Route route = handler.routing().route(pipelineName, null, "Compile");
+        return route == null ? null : route.serviceKey();
+    }
+
+    private void write(String contents) throws Exception {
+        Files.write(configFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,241 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.GsonBuilder;
+import com.squareup.pagerduty.incidents.FakePagerDuty;
+import com.squareup.pagerduty.incidents.NotifyResult;
+import com.squareup.pagerduty.incidents.PagerDuty;
+import com.squareup.pagerduty.incidents.Resolution;
+import com.squareup.pagerduty.incidents.Trigger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeliveryEngineTest {
+
+    @Test
+    public void testUndeliveredEventsAreSentInOrderOnceTheCircuitCloses() throws Exception {
+        Config config = ConfigFactory.parseString("pagerduty.delivery { initial_backoff = 200ms, retry_interval = 1h }")
+                .withFallback(ConfigFactory.load("configReferenceTest_Multiple.conf"));
+        final FlakyPagerDuty pd = new FlakyPagerDuty();
+        PagerDutyHandler handler = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return pd;
+            }
+        };
+        handler.clearCurrentIncidents();
+
+        pd.down = true;
+        handler.handle(getTestMessage("/goMessageFailure1.json"));
+        handler.handle(getTestMessage("/goMessagePassed1.json"));
+
+        // The resolution doesn't wait on PagerDuty while the circuit is open
+        Assert.assertEquals(pd.calls.get(), 1);
+        Assert.assertEquals(handler.deliveries().pendingCount(), 2);
+        Assert.assertEquals(handler.deliveries().circuitState("APIKEY1"), CircuitBreaker.State.OPEN);
+        handler.deliveries().retryPending();
+        Assert.assertEquals(pd.calls.get(), 1);
+
+        pd.down = false;
+        Thread.sleep(250);
+        handler.deliveries().retryPending();
+
+        Assert.assertEquals(handler.deliveries().pendingCount(), 0);
+        Assert.assertEquals(handler.deliveries().circuitState("APIKEY1"), CircuitBreaker.State.CLOSED);
+        Assert.assertEquals(pd.fake.openIncidents().size(), 0);
+        Assert.assertEquals(pd.fake.closedIncidents().size(), 1);
+        handler.close();
+    }
+
+    @Test
+    public void testOutboxSurvivesReopen() throws Exception {
+        File directory = Files.createTempDirectory("pagerduty-outbox").toFile();
+        try {
+            Outbox outbox = new Outbox(directory, 3);
+            Delivery first = Delivery.trigger("APIKEY1", "Pipeline_1", "Pipeline_1-Compile", "incident-1", "Failed Build: 1", "https://go/1");
+            outbox.add(first);
+            for (int i = 2; i <= 4; i++) {
+                outbox.add(Delivery.trigger("APIKEY1", "Pipeline_" + i, "Pipeline_" + i + "-Compile", "incident-" + i, "Failed Build: " + i, "https://go/" + i));
+            }
+            outbox.add(Delivery.trigger("APIKEY1", "Pipeline_1", "Pipeline_1-Test", "incident-5", "Failed Build: 5", "https://go/5",
+                    Collections.singletonMap("unit", "Failed on agent uuid")));
+            outbox.add(Delivery.resolve("APIKEY1", "Pipeline_2", "Pipeline_2-Compile", "incident-2", "Passed: 2"));
+            outbox.delivered(first);
+            outbox.close();
+
+            Outbox reopened = new Outbox(directory, 3);
+            List<Delivery> pending = reopened.pending();
+            Assert.assertEquals(pending.size(), 5);
+            Assert.assertEquals(pending.get(0).incidentKey(), "incident-2");
+            Assert.assertEquals(pending.get(0).clientUrl(), "https://go/2");
+            Assert.assertEquals(pending.get(0).pipelineStage(), "Pipeline_2-Compile");
+            Assert.assertTrue(pending.get(0).details().isEmpty());
+            Assert.assertEquals(pending.get(3).details(), Collections.singletonMap("unit", "Failed on agent uuid"));
+            Assert.assertEquals(pending.get(4).type(), Delivery.Type.RESOLVE);
+            Assert.assertNull(pending.get(4).clientUrl());
+
+            // New deliveries keep sorting after the recovered ones
+            reopened.add(Delivery.resolve("APIKEY1", "Pipeline_3", "Pipeline_3-Compile", "incident-3", "Passed: 3"));
+            for (Delivery delivery : pending) {
+                reopened.delivered(delivery);
+            }
+            reopened.close();
+            Outbox again = new Outbox(directory, 3);
+            Assert.assertEquals(again.size(), 1);
+            Assert.assertEquals(again.pending().get(0).description(), "Passed: 3");
+            again.close();
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testBackoffDoublesWithJitterUpToTheMaximum() {
+        CircuitBreaker breaker = new CircuitBreaker(1000, 10000);
+        for (int i = 0; i < 100; i++) {
+            long first = breaker.backoff(1);
+            Assert.assertTrue(first >= 500 && first <= 1000, "Backoff " + first);
+            long third = breaker.backoff(3);
+            Assert.assertTrue(third >= 2000 && third <= 4000, "Backoff " + third);
+            long capped = breaker.backoff(40);
+            Assert.assertTrue(capped >= 5000 && capped <= 10000, "Backoff " + capped);
+        }
+    }
+
+    @Test
+    public void testCallsBeyondTheRateWaitInTheOutbox() throws Exception {
+        Config config = ConfigFactory.parseString("pagerduty.rate_limit { per_second = 0.001, burst = 1 }, pagerduty.delivery.retry_interval = 1h")
+                .withFallback(ConfigFactory.load("configReferenceTest_Multiple.conf"));
+        final FlakyPagerDuty pd = new FlakyPagerDuty();
+        PagerDutyHandler handler = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return pd;
+            }
+        };
+        handler.clearCurrentIncidents();
+
+        handler.handle(getTestMessage("/goMessageFailure1.json"));
+        handler.handle(getTestMessage("/goMessagePassed1.json"));
+
+        Assert.assertEquals(pd.calls.get(), 1);
+        Assert.assertEquals(handler.deliveries().pendingCount(), 1);
+        // Throttling isn't a failure
+        Assert.assertEquals(handler.deliveries().circuitState("APIKEY1"), CircuitBreaker.State.CLOSED);
+        handler.close();
+    }
+
+    @Test
+    public void testDeliveriesHeldBehindAnInFlightCallArePending() throws Exception {
+        final List<PagerDutyTransport.Callback> inFlight = new ArrayList<>();
+        PagerDutyTransport transport = new PagerDutyTransport() {
+            @Override
+            public void send(Delivery delivery, Callback callback) {
+                inFlight.add(callback);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        DeliveryEngine engine = new DeliveryEngine(transport, new Outbox(), new NotificationMetrics(newIncidentStore(), 100),
+                1000, 10000, 3600000, 0.001, 1, 10000);
+
+        engine.deliver(Delivery.trigger("APIKEY1", "Pipeline_1", "Pipeline_1-Compile", "incident-1", "Failed Build: 1", null));
+        // Beyond the rate and behind the call on its way, so held back rather than put in the outbox yet
+        engine.deliver(Delivery.resolve("APIKEY1", "Pipeline_1", "Pipeline_1-Compile", "incident-1", "Passed: 1"));
+        Assert.assertEquals(inFlight.size(), 1);
+        Assert.assertEquals(engine.pendingCount(), 2);
+
+        inFlight.get(0).delivered();
+        Assert.assertEquals(engine.pendingCount(), 1);
+        engine.close();
+    }
+
+    @Test
+    public void testResolutionsAndFirstFailuresGoAheadOfRepeats() {
+        DeliveryQueue queue = new DeliveryQueue();
+        queue.add(Delivery.trigger("APIKEY1", "Pipeline_1", "Pipeline_1-Compile", "incident-1", "Failed Build: 1", null));
+        queue.add(Delivery.resolve("APIKEY1", "Pipeline_1", "Pipeline_1-Compile", "incident-1", "Passed: 1"));
+        // Pipeline_1 failed again while its first incident was still waiting
+        queue.add(Delivery.trigger("APIKEY1", "Pipeline_1", "Pipeline_1-Compile", "incident-2", "Failed Build: 1", null));
+        queue.add(Delivery.resolve("APIKEY1", "Pipeline_1", "Pipeline_1-Compile", "incident-2", "Passed: 1"));
+        queue.add(Delivery.trigger("APIKEY1", "Pipeline_2", "Pipeline_2-Compile", "incident-3", "Failed Build: 2", null));
+        queue.add(Delivery.resolve("APIKEY1", "Pipeline_4", "Pipeline_4-Compile", "incident-4", "Passed: 4"));
+
+        StringBuilder order = new StringBuilder();
+        while (!queue.isEmpty()) {
+            Delivery delivery = queue.peek();
+            order.append(delivery.incidentKey()).append(delivery.type() == Delivery.Type.TRIGGER ? "+" : "-").append(' ');
+            queue.remove(delivery);
+        }
+        Assert.assertEquals(order.toString(), "incident-1+ incident-1- incident-3+ incident-4- incident-2+ incident-2- ");
+    }
+
+    @Test
+    public void testTokenBucketRefillsUpToTheBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        Assert.assertTrue(bucket.tryAcquire(0));
+        Assert.assertTrue(bucket.tryAcquire(0));
+        Assert.assertFalse(bucket.tryAcquire(50000000L));
+        Assert.assertTrue(bucket.tryAcquire(100000000L));
+        Assert.assertFalse(bucket.tryAcquire(100000000L));
+        // A long quiet period only refills the burst
+        Assert.assertTrue(bucket.tryAcquire(10000000000L));
+        Assert.assertTrue(bucket.tryAcquire(10000000000L));
+        Assert.assertFalse(bucket.tryAcquire(10000000000L));
+    }
+
+    private static class FlakyPagerDuty extends PagerDuty {
+        private final FakePagerDuty fake = new FakePagerDuty();
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean down;
+
+        @Override
+        public NotifyResult notify(Trigger trigger) {
+            calls.incrementAndGet();
+            if (down) {
+                throw new IllegalStateException("PagerDuty is down");
+            }
+            return fake.notify(trigger);
+        }
+
+        @Override
+        public NotifyResult notify(Resolution resolution) {
+            calls.incrementAndGet();
+            if (down) {
+                throw new IllegalStateException("PagerDuty is down");
+            }
+            return fake.notify(resolution);
+        }
+    }
+
+    GoNotificationMessage getTestMessage(String filename) throws URISyntaxException, IOException {
+        String json = new String(Files.readAllBytes(Paths.get(getClass().getResource(filename).toURI())), StandardCharsets.UTF_8);
+        return new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(json, GoNotificationMessage.class);
+    }
+
+    private static IncidentStore newIncidentStore() {
+        return new BoundedIncidentStore(IncidentLog.NONE, 100, 0, new BoundedIncidentStore.EvictionListener() {
+            @Override
+            public void evicted(String pipelineStage, String incidentKey, String pipelineName, String serviceKey) {
+            }
+        });
+    }
+}
@@ -0,0 +1,106 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.GsonBuilder;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+
+public class GoNotificationMessageTest {
+
+    @DataProvider
+    public Object[][] fixtures() {
+        return new Object[][]{
+                {"/goMessageFailure1.json"},
+                {"/goMessageFailure2.json"},
+                {"/goMessageFailure3.json"},
+                {"/goMessagePassed1.json"},
+                {"/goMessagePassed3.json"},
+        };
+    }
+
+    @Test(dataProvider = "fixtures")
+    public void testStreamingParseMatchesDataBinding(String filename) throws Exception {
+        String json = getTestFile(filename);
+        GoNotificationMessage bound = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(json, GoNotificationMessage.class);
+        GoNotificationMessage streamed = GoNotificationMessage.parse(json);
+
+        Assert.assertEquals(streamed.getPipelineName(), bound.getPipelineName());
+        Assert.assertEquals(streamed.getPipelineCounter(), bound.getPipelineCounter());
+        Assert.assertEquals(streamed.getStageName(), bound.getStageName());
+        Assert.assertEquals(streamed.getStageCounter(), bound.getStageCounter());
+        Assert.assertEquals(streamed.getStageState(), bound.getStageState());
+        Assert.assertEquals(streamed.getStageResult(), bound.getStageResult());
+        Assert.assertEquals(streamed.getStageCreateTime(), bound.getStageCreateTime());
+        Assert.assertEquals(streamed.getStageLastTransitionTime(), bound.getStageLastTransitionTime());
+        Assert.assertEquals(streamed.fullyQualifiedJobName(), bound.fullyQualifiedJobName());
+
+        // Jobs are skipped by the streaming parse and read on first use
+        Assert.assertEquals(streamed.getJobNames(), bound.getJobNames());
+        for (String jobName : bound.getJobNames()) {
+            Assert.assertEquals(streamed.getJobState(jobName), bound.getJobState(jobName));
+            Assert.assertEquals(streamed.getJobResult(jobName), bound.getJobResult(jobName));
+            Assert.assertEquals(streamed.getJobScheduleTime(jobName), bound.getJobScheduleTime(jobName));
+            Assert.assertEquals(streamed.getJobCompleteTime(jobName), bound.getJobCompleteTime(jobName));
+        }
+    }
+
+    @Test(dataProvider = "fixtures")
+    public void testTimestampsAndJobLookup(String filename) throws Exception {
+        GoNotificationMessage message = GoNotificationMessage.parse(getTestFile(filename));
+
+        Assert.assertEquals(message.getStageLastTransitionTime().getTime() - message.getStageCreateTime().getTime(), 5 * 60 * 1000L);
+        Assert.assertEquals(message.getStageCreateTime(), new Date(Iso8601.parse("2015-09-01T10:00:00.000Z")));
+        Assert.assertEquals(message.getJobNames().size(), 1);
+        String jobName = message.getJobNames().get(0);
+        Assert.assertEquals(message.getJobState(jobName), message.getStageState());
+        Assert.assertEquals(message.getJobResult(jobName), message.getStageResult());
+        Assert.assertEquals(message.getJobScheduleTime(jobName), message.getStageCreateTime());
+        Assert.assertEquals(message.getJobCompleteTime(jobName), message.getStageLastTransitionTime());
+        Assert.assertNull(message.getJobState("no-such-job"));
+    }
+
+    @Test
+    public void testJobLookupOnWideStage() throws Exception {
+        StringBuilder jobs = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) {
+                jobs.append(',');
+            }
+            jobs.append(String.format("{\"name\": \"job-%d\", \"schedule-time\": \"2015-09-01T10:00:%02dZ\", \"state\": \"Completed\", \"result\": \"%s\"}",
+                    i, i % 60, i % 7 == 0 ? "Failed" : "Passed"));
+        }
+        GoNotificationMessage message = GoNotificationMessage.parse(
+                "{\"pipeline\": {\"name\": \"Pipeline_1\", \"counter\": \"1\", \"stage\": {\"name\": \"Compile\", \"counter\": \"1\", \"jobs\": [" + jobs + "]}}}");
+
+        Assert.assertEquals(message.getJobNames().size(), 500);
+        for (String jobName : message.getJobNames()) {
+            int i = Integer.parseInt(jobName.substring(4));
+            Assert.assertEquals(message.getJobResult(jobName), i % 7 == 0 ? "Failed" : "Passed");
+            Assert.assertEquals(message.getJobScheduleTime(jobName).getTime(), Iso8601.parse("2015-09-01T10:00:00Z") + (i % 60) * 1000L);
+        }
+    }
+
+    @Test
+    public void testParseToleratesMissingJobsAndNulls() throws Exception {
+        GoNotificationMessage message = GoNotificationMessage.parse(
+                "{\"pipeline\": {\"name\": \"Pipeline_1\", \"counter\": \"1\", \"stage\": {\"name\": \"Compile\", \"counter\": \"1\", \"state\": \"Failed\", \"result\": null}}, \"extra\": [1, 2]}");
+
+        Assert.assertTrue(message.hasPipelineAndStage());
+        Assert.assertEquals(message.getStageState(), "Failed");
+        Assert.assertNull(message.getStageResult());
+        Assert.assertTrue(message.getJobNames().isEmpty());
+    }
+
+    String getTestFile(String filename) throws URISyntaxException, IOException {
+        Path filePath = Paths.get(getClass().getResource(filename).toURI());
+        return new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
+    }
+}
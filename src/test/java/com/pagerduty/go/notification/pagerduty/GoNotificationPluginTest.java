@@ -0,0 +1,80 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.squareup.pagerduty.incidents.FakePagerDuty;
+import com.squareup.pagerduty.incidents.PagerDuty;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+public class GoNotificationPluginTest {
+
+    @Test
+    public void testStartupDoesNotWaitForNameResolution() throws Exception {
+        final CountDownLatch neverResolves = new CountDownLatch(1);
+        HostnameResolver hangingResolver = new HostnameResolver(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                neverResolves.await();
+                return "unreachable";
+            }
+        }, 200);
+
+        long start = System.nanoTime();
+        new GoNotificationPlugin();
+        Config config = ConfigFactory.load("configReferenceTest.conf");
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        PagerDutyHandler handler = new PagerDutyHandler(config, hangingResolver) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+        long constructionMs = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue(constructionMs < 1000, "Startup took " + constructionMs + " ms");
+
+        // The first notification waits for the lookup no longer than its timeout
+        start = System.nanoTime();
+        handler.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure1.json")));
+        long handleMs = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue(handleMs < 1000, "Notification took " + handleMs + " ms");
+        Assert.assertTrue(fakePD.openIncidents().values().iterator().next().endsWith(" on "));
+
+        // Later ones don't wait again
+        start = System.nanoTime();
+        handler.handle(GoNotificationMessage.parse(getTestFile("/goMessagePassed1.json")));
+        Assert.assertTrue((System.nanoTime() - start) / 1000000 < 100);
+        neverResolves.countDown();
+        handler.close();
+    }
+
+    @Test
+    public void testServerUrlReplacesTheHostname() throws Exception {
+        Config config = ConfigFactory.parseString("pagerduty.server_url = \"http://gocd.example.com:8153/\"")
+                .withFallback(ConfigFactory.load("configReferenceTest.conf"));
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        PagerDutyHandler handler = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        handler.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure1.json")));
+
+        Assert.assertTrue(fakePD.openIncidents().values().iterator().next().endsWith(" on gocd.example.com"));
+        handler.close();
+    }
+
+    String getTestFile(String filename) throws URISyntaxException, IOException {
+        return new String(Files.readAllBytes(Paths.get(getClass().getResource(filename).toURI())), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,53 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class Iso8601Test {
+    private static final long SEPTEMBER_1_2015_10AM = 1441101600000L;
+
+    @Test
+    public void testParseVariants() {
+        Assert.assertEquals(Iso8601.parse("2015-09-01T10:00:00.000Z"), SEPTEMBER_1_2015_10AM);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T10:00:00Z"), SEPTEMBER_1_2015_10AM);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T10:00:00"), SEPTEMBER_1_2015_10AM);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T10:00:00.123Z"), SEPTEMBER_1_2015_10AM + 123);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T10:00:00.1Z"), SEPTEMBER_1_2015_10AM + 100);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T10:00:00.123456Z"), SEPTEMBER_1_2015_10AM + 123);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T12:00:00+02:00"), SEPTEMBER_1_2015_10AM);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T12:30:00.000+0230"), SEPTEMBER_1_2015_10AM);
+        Assert.assertEquals(Iso8601.parse("2015-09-01T05:00:00-05"), SEPTEMBER_1_2015_10AM);
+        Assert.assertEquals(Iso8601.parse("1969-12-31T23:59:59.999Z"), -1L);
+    }
+
+    @Test
+    public void testInvalidTimestampsAreRejected() {
+        String[] invalid = {"", "2015-09-01", "2015-13-01T10:00:00Z", "2015-09-01 10:00:00Z", "2015-09-01T10:00:00.Z",
+                "2015-09-01T10:00:00+2", "2015-09-01T10:00:00Zulu", "2015-O9-01T10:00:00Z"};
+        for (String date : invalid) {
+            try {
+                Iso8601.parse(date);
+                Assert.fail("Accepted " + date);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long millis = (long) (random.nextDouble() * 8000000000000L) - 2000000000000L;
+            String formatted = format.format(millis);
+            Assert.assertEquals(Iso8601.format(millis), formatted);
+            Assert.assertEquals(Iso8601.parse(formatted), millis);
+        }
+    }
+}
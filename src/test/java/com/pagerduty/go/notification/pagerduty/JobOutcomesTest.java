@@ -0,0 +1,30 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class JobOutcomesTest {
+
+    @Test
+    public void testOnlyNewlyFailingJobsAreReported() throws Exception {
+        JobOutcomes outcomes = new JobOutcomes();
+
+        Assert.assertEquals(outcomes.update(message("Failed", "Passed", "Failed")), Arrays.asList("job-0", "job-2"));
+        // Still failing, so not reported again
+        Assert.assertEquals(outcomes.update(message("Failed", "Failed", "Failed")), Collections.singletonList("job-1"));
+        Assert.assertEquals(outcomes.update(message("Passed", "Passed", "Passed")), Collections.emptyList());
+        // A job that passed in between counts as newly failing again, as does a job new to the stage
+        Assert.assertEquals(outcomes.update(message("Failed", "Passed", "Passed", "Failed")), Arrays.asList("job-0", "job-3"));
+    }
+
+    private static GoNotificationMessage message(String... results) throws Exception {
+        StringBuilder jobs = new StringBuilder();
+        for (int i = 0; i < results.length; i++) {
+            jobs.append(i == 0 ? "" : ",").append(String.format("{\"name\": \"job-%d\", \"result\": \"%s\", \"agent-uuid\": \"agent-%d\"}", i, results[i], i));
+        }
+        return GoNotificationMessage.parse("{\"pipeline\": {\"name\": \"Pipeline_1\", \"stage\": {\"name\": \"Compile\", \"jobs\": [" + jobs + "]}}}");
+    }
+}
@@ -0,0 +1,117 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+public class JournalIncidentLogTest {
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("pagerduty-incidents").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testIncidentsSurviveReopen() throws Exception {
+        BoundedIncidentStore store = open(100);
+        store.put("Pipeline_1-Compile", "incident-1");
+        store.put("Pipeline_2-Compile", "incident-2");
+        store.remove("Pipeline_1-Compile");
+        store.close();
+
+        BoundedIncidentStore reopened = open(100);
+        Assert.assertEquals(reopened.size(), 1);
+        Assert.assertNull(reopened.get("Pipeline_1-Compile"));
+        Assert.assertEquals(reopened.get("Pipeline_2-Compile"), "incident-2");
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionKeepsIncidentsAndTruncatesJournal() throws Exception {
+        BoundedIncidentStore store = open(10);
+        for (int i = 0; i < 25; i++) {
+            store.put("Pipeline_" + i + "-Compile", "incident-" + i);
+        }
+        store.remove("Pipeline_3-Compile");
+        store.close();
+
+        Assert.assertTrue(new File(directory, JournalIncidentLog.SNAPSHOT_FILENAME).exists());
+        Assert.assertTrue(new File(directory, JournalIncidentLog.JOURNAL_FILENAME).length() < 200);
+
+        BoundedIncidentStore reopened = open(10);
+        Assert.assertEquals(reopened.size(), 24);
+        Assert.assertNull(reopened.get("Pipeline_3-Compile"));
+        Assert.assertEquals(reopened.get("Pipeline_24-Compile"), "incident-24");
+        reopened.close();
+    }
+
+    @Test
+    public void testIncompleteJournalRecordIsDiscarded() throws Exception {
+        BoundedIncidentStore store = open(100);
+        store.put("Pipeline_1-Compile", "incident-1");
+        store.put("Pipeline_2-Compile", "incident-2");
+        store.close();
+
+        File journal = new File(directory, JournalIncidentLog.JOURNAL_FILENAME);
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        BoundedIncidentStore reopened = open(100);
+        Assert.assertEquals(reopened.size(), 1);
+        reopened.put("Pipeline_3-Compile", "incident-3");
+        reopened.close();
+
+        BoundedIncidentStore again = open(100);
+        Assert.assertEquals(again.get("Pipeline_1-Compile"), "incident-1");
+        Assert.assertEquals(again.get("Pipeline_3-Compile"), "incident-3");
+        again.close();
+    }
+
+    @Test
+    public void testRecoveryOf100kOpenIncidents() throws Exception {
+        int incidents = 100000;
+        BoundedIncidentStore store = open(10000);
+        for (int i = 0; i < incidents; i++) {
+            store.put("Pipeline_" + i + "-Compile", "incident-" + i);
+        }
+        // Leave part of the state in the journal tail
+        for (int i = 0; i < 5000; i++) {
+            store.remove("Pipeline_" + i + "-Compile");
+        }
+        store.close();
+
+        // How long this takes is measured by IncidentStoreRecoveryBenchmark
+        BoundedIncidentStore reopened = open(10000);
+        Assert.assertEquals(reopened.size(), incidents - 5000);
+        Assert.assertNull(reopened.get("Pipeline_4999-Compile"));
+        Assert.assertEquals(reopened.get("Pipeline_99999-Compile"), "incident-99999");
+        reopened.close();
+    }
+
+    // The journal only records changes, the incidents are looked up in the store kept over it
+    private BoundedIncidentStore open(int compactAfter) throws IOException {
+        return new BoundedIncidentStore(new JournalIncidentLog(directory, compactAfter), Integer.MAX_VALUE, 0,
+                new BoundedIncidentStore.EvictionListener() {
+                    @Override
+                    public void evicted(String pipelineStage, String incidentKey, String pipelineName, String serviceKey) {
+                        Assert.fail("Nothing is evicted from an unbounded store");
+                    }
+                });
+    }
+}
@@ -0,0 +1,553 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays stage-status notifications through {@link GoNotificationPlugin#handle} at a steady rate
+ * against an in-process stub of the PagerDuty Events API, then checks that every failure episode
+ * was triggered and resolved exactly once.
+ * <p>
+ * The notifications are the test fixtures and variants of them across many pipelines and stages.
+ * Each stage belongs to one sending thread, so its notifications arrive in order, and goes through
+ * episodes of one or more failures followed by a pass. Run it with
+ * {@code mvn -P load verify -Dload.args="rate=2000 concurrency=16"}, see {@link Settings} for the options.
+ */
+public class LoadHarness {
+    private static final String[] FAILURE_FIXTURES = {"goMessageFailure1.json", "goMessageFailure2.json", "goMessageFailure3.json"};
+    private static final String[] PASSED_FIXTURES = {"goMessagePassed1.json", "goMessagePassed3.json"};
+    private static final String[] STAGES = {"Compile", "Test", "Package", "Deploy"};
+
+    /**
+     * What to run, each set with a {@code name=value} argument.
+     */
+    static class Settings {
+        // Generated pipelines, on top of the fixtures' own, and stages of each
+        int pipelines = 200;
+        int stages = 3;
+        int events = 20000;
+        // Notifications per second over all threads, 0 sends them as fast as they're handled
+        double rate = 1000;
+        int concurrency = 8;
+        // Added to every call to the stub, and the share of calls it fails with a 500
+        long latencyMs = 5;
+        double errorRate = 0;
+        String transport = "client";
+
+        static Settings parse(String... args) {
+            Settings settings = new Settings();
+            for (String arg : args) {
+                String[] setting = arg.split("=", 2);
+                if (setting.length != 2) {
+                    throw new IllegalArgumentException("Expected name=value: " + arg);
+                }
+                switch (setting[0]) {
+                    case "pipelines":
+                        settings.pipelines = Integer.parseInt(setting[1]);
+                        break;
+                    case "stages":
+                        settings.stages = Math.min(STAGES.length, Integer.parseInt(setting[1]));
+                        break;
+                    case "events":
+                        settings.events = Integer.parseInt(setting[1]);
+                        break;
+                    case "rate":
+                        settings.rate = Double.parseDouble(setting[1]);
+                        break;
+                    case "concurrency":
+                        settings.concurrency = Integer.parseInt(setting[1]);
+                        break;
+                    case "latency_ms":
+                        settings.latencyMs = Long.parseLong(setting[1]);
+                        break;
+                    case "error_rate":
+                        settings.errorRate = Double.parseDouble(setting[1]);
+                        break;
+                    case "transport":
+                        settings.transport = setting[1];
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown setting: " + setting[0]);
+                }
+            }
+            return settings;
+        }
+    }
+
+    static class Result {
+        int events;
+        int errors;
+        long elapsedNanos;
+        long p50Nanos;
+        long p99Nanos;
+        long p999Nanos;
+        int episodes;
+        int triggers;
+        int resolutions;
+        final List<String> problems = new ArrayList<>();
+
+        boolean correct() {
+            return problems.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d notifications in %.2f s, %.0f/s, %d failed%n", events, elapsedNanos / 1e9,
+                    events / (elapsedNanos / 1e9), errors));
+            report.append(String.format("latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms%n", p50Nanos / 1e6, p99Nanos / 1e6, p999Nanos / 1e6));
+            report.append(String.format("%d failure episodes, %d triggers and %d resolutions received%n", episodes, triggers, resolutions));
+            if (correct()) {
+                report.append("every episode was triggered and resolved exactly once");
+            } else {
+                report.append(problems.size()).append(" problems, the first: ").append(problems.subList(0, Math.min(10, problems.size())));
+            }
+            return report.toString();
+        }
+    }
+
+    /**
+     * A pipeline stage and the notifications that fail and pass it.
+     */
+    private static class StageBodies {
+        private final String failed;
+        private final String passed;
+        private boolean failing;
+        private int run;
+
+        private StageBodies(String failed, String passed) {
+            this.failed = failed;
+            this.passed = passed;
+        }
+
+        /**
+         * @return the body as a notification of the stage's next pipeline run, which is what GoCD would send
+         */
+        private String nextRun(String body) {
+            // The pipeline's counter comes before the stage's
+            int start = body.indexOf('"', body.indexOf(':', body.indexOf("\"counter\""))) + 1;
+            int end = body.indexOf('"', start);
+            return body.substring(0, start) + (++run) + body.substring(end);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Result result = run(Settings.parse(args));
+        System.out.println(result);
+        System.exit(result.correct() ? 0 : 1);
+    }
+
+    static Result run(final Settings settings) throws Exception {
+        StubPagerDuty stub = new StubPagerDuty(settings.latencyMs, settings.errorRate);
+        PagerDutyHandler handler = new PagerDutyHandler(config(settings, stub.baseUrl()));
+        final GoNotificationPlugin plugin = new GoNotificationPlugin(handler, null);
+        final Result result = new Result();
+
+        try {
+            List<StageBodies> stages = stages(settings);
+            final List<List<StageBodies>> owned = new ArrayList<>();
+            for (int i = 0; i < settings.concurrency; i++) {
+                owned.add(new ArrayList<StageBodies>());
+            }
+            for (int i = 0; i < stages.size(); i++) {
+                owned.get(i % settings.concurrency).add(stages.get(i));
+            }
+
+            final AtomicInteger episodes = new AtomicInteger();
+            final AtomicInteger errors = new AtomicInteger();
+            ExecutorService senders = Executors.newFixedThreadPool(settings.concurrency);
+            List<Future<long[]>> latencies = new ArrayList<>();
+            final long start = System.nanoTime();
+            for (int i = 0; i < settings.concurrency; i++) {
+                final List<StageBodies> mine = owned.get(i);
+                final int events = settings.events / settings.concurrency;
+                latencies.add(senders.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        return send(plugin, mine, events, settings, start, episodes, errors);
+                    }
+                }));
+            }
+            long[] all = new long[0];
+            for (Future<long[]> sent : latencies) {
+                long[] some = sent.get();
+                all = Arrays.copyOf(all, all.length + some.length);
+                System.arraycopy(some, 0, all, all.length - some.length, some.length);
+            }
+            result.elapsedNanos = System.nanoTime() - start;
+            senders.shutdown();
+
+            // Failed calls are retried in the background
+            long deadline = System.currentTimeMillis() + 60000;
+            while (handler.deliveries().pendingCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            handler.close();
+
+            Arrays.sort(all);
+            result.events = all.length;
+            result.errors = errors.get();
+            result.p50Nanos = percentile(all, 0.5);
+            result.p99Nanos = percentile(all, 0.99);
+            result.p999Nanos = percentile(all, 0.999);
+            result.episodes = episodes.get();
+            stub.check(result);
+        } finally {
+            stub.close();
+        }
+        return result;
+    }
+
+    /**
+     * Sends the events of one thread's stages, keeping to its share of the rate.
+     *
+     * @return the latency of every notification, from when it was due so that a stall isn't hidden
+     */
+    private static long[] send(GoNotificationPlugin plugin, List<StageBodies> stages, int events, Settings settings, long start,
+                               AtomicInteger episodes, AtomicInteger errors) {
+        Random random = ThreadLocalRandom.current();
+        long intervalNanos = settings.rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * settings.concurrency / settings.rate) : 0;
+        List<Long> latencies = new ArrayList<>(events + stages.size());
+        long due = start;
+
+        for (int i = 0; i < events; i++) {
+            StageBodies stage = stages.get(random.nextInt(stages.size()));
+            String body;
+            if (!stage.failing) {
+                episodes.incrementAndGet();
+                stage.failing = true;
+                body = stage.nextRun(stage.failed);
+            } else if (random.nextBoolean()) {
+                body = stage.nextRun(stage.failed);
+            } else {
+                stage.failing = false;
+                body = stage.nextRun(stage.passed);
+            }
+
+            due += intervalNanos;
+            long now = System.nanoTime();
+            if (due > now) {
+                LockSupport.parkNanos(due - now);
+            } else if (intervalNanos == 0) {
+                due = now;
+            }
+            latencies.add(handle(plugin, body, due, errors));
+        }
+
+        // End every episode
+        for (StageBodies stage : stages) {
+            if (stage.failing) {
+                stage.failing = false;
+                latencies.add(handle(plugin, stage.nextRun(stage.passed), System.nanoTime(), errors));
+            }
+        }
+
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        return sorted;
+    }
+
+    private static long handle(GoNotificationPlugin plugin, String body, long due, AtomicInteger errors) {
+        DefaultGoPluginApiRequest request = new DefaultGoPluginApiRequest("notification", "1.0", "stage-status");
+        request.setRequestBody(body);
+        if (plugin.handle(request).responseCode() != 200) {
+            errors.incrementAndGet();
+        }
+        return System.nanoTime() - due;
+    }
+
+    private static Config config(Settings settings, String baseUrl) {
+        return ConfigFactory.parseString(String.format("pagerduty {%n"
+                + "  routes = [{ pipeline = \"*\", service_key = LOAD_KEY }]%n"
+                + "  server_url = \"https://gocd.example.com\"%n"
+                + "  watch_config = false%n"
+                + "  incident_store.type = memory%n"
+                + "  rate_limit.per_second = 0%n"
+                + "  delivery { initial_backoff = 10ms, max_backoff = 100ms, retry_interval = 10ms }%n"
+                + "  http { base_url = \"%s\", transport = %s, read_timeout = 10s }%n"
+                + "}", baseUrl, settings.transport))
+                .withFallback(ConfigFactory.load());
+    }
+
+    private static List<StageBodies> stages(Settings settings) throws Exception {
+        List<String> failures = new ArrayList<>();
+        for (String fixture : FAILURE_FIXTURES) {
+            failures.add(fixture(fixture));
+        }
+        List<String> passes = new ArrayList<>();
+        for (String fixture : PASSED_FIXTURES) {
+            passes.add(fixture(fixture));
+        }
+
+        List<StageBodies> stages = new ArrayList<>();
+        // The fixtures as they are, passed by a pass fixture renamed to match
+        for (int i = 0; i < failures.size(); i++) {
+            JsonObject pipeline = new JsonParser().parse(failures.get(i)).getAsJsonObject().getAsJsonObject("pipeline");
+            String name = pipeline.get("name").getAsString();
+            String stage = pipeline.getAsJsonObject("stage").get("name").getAsString();
+            stages.add(new StageBodies(failures.get(i), rename(passes.get(i % passes.size()), name, stage)));
+        }
+        for (int p = 0; p < settings.pipelines; p++) {
+            for (int s = 0; s < settings.stages; s++) {
+                String name = "load-pipeline-" + p;
+                int variant = p * settings.stages + s;
+                stages.add(new StageBodies(rename(failures.get(variant % failures.size()), name, STAGES[s]),
+                        rename(passes.get(variant % passes.size()), name, STAGES[s])));
+            }
+        }
+        return stages;
+    }
+
+    private static String rename(String template, String pipelineName, String stageName) {
+        JsonObject body = new JsonParser().parse(template).getAsJsonObject();
+        JsonObject pipeline = body.getAsJsonObject("pipeline");
+        pipeline.addProperty("name", pipelineName);
+        pipeline.getAsJsonObject("stage").addProperty("name", stageName);
+        return body.toString();
+    }
+
+    private static String fixture(String name) throws Exception {
+        return new String(Files.readAllBytes(Paths.get(LoadHarness.class.getResource("/" + name).toURI())), StandardCharsets.UTF_8);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Accepts Events API calls after a delay, failing some of them, and counts the events it accepted per incident.
+     * <p>
+     * It keeps connections alive and sends each response in one write with TCP_NODELAY, like PagerDuty's servers. The
+     * JDK's HttpServer writes the headers and the body of a response separately without it, so on a kept-alive
+     * connection Nagle's algorithm holds the body back until the client's delayed ACK, some 40 ms per call.
+     */
+    static class StubPagerDuty implements Runnable {
+        private static final int TRIGGERS = 0;
+        private static final int RESOLUTIONS = 1;
+
+        private final ServerSocket server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+        private final long latencyMs;
+        private final double errorRate;
+        private final ConcurrentMap<String, AtomicIntegerArray> incidents = new ConcurrentHashMap<>();
+        private final List<String> outOfOrder = new ArrayList<>();
+
+        StubPagerDuty(long latencyMs, double errorRate) throws IOException {
+            this.latencyMs = latencyMs;
+            this.errorRate = errorRate;
+            server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            executor.execute(this);
+        }
+
+        String baseUrl() {
+            return "http://127.0.0.1:" + server.getLocalPort();
+        }
+
+        // Accepts connections until closed, each served on its own thread
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                final Socket connection;
+                try {
+                    connection = server.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                connections.add(connection);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(connection);
+                        } catch (IOException ignored) {
+                            // The client went away
+                        } finally {
+                            connections.remove(connection);
+                            closeQuietly(connection);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void serve(Socket connection) throws IOException {
+            connection.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = connection.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                int contentLength = 0;
+                boolean keepAlive = true;
+                for (String header = readLine(in); header != null && !header.isEmpty(); header = readLine(in)) {
+                    int colon = header.indexOf(':');
+                    String name = header.substring(0, Math.max(0, colon)).trim();
+                    String value = header.substring(colon + 1).trim();
+                    if ("Content-Length".equalsIgnoreCase(name)) {
+                        contentLength = Integer.parseInt(value);
+                    } else if ("Connection".equalsIgnoreCase(name) && "close".equalsIgnoreCase(value)) {
+                        keepAlive = false;
+                    }
+                }
+                byte[] body = new byte[contentLength];
+                new DataInputStream(in).readFully(body);
+
+                int status = 404;
+                String response = "{\"status\":\"error\",\"message\":\"Not found\"}";
+                if (requestLine.startsWith("POST " + AsyncHttpTransport.EVENTS_PATH + " ")) {
+                    String incidentKey = accept(new String(body, StandardCharsets.UTF_8));
+                    status = incidentKey == null ? 500 : 200;
+                    response = "{\"status\":\"" + (status == 200 ? "success" : "error") + "\",\"message\":\"Event processed\",\"incident_key\":\""
+                            + incidentKey + "\"}";
+                }
+                byte[] responseBody = response.getBytes(StandardCharsets.UTF_8);
+                ByteArrayOutputStream message = new ByteArrayOutputStream();
+                message.write(String.format("HTTP/1.1 %d %s\r\nContent-Type: application/json\r\nContent-Length: %d\r\n%s\r\n",
+                        status, status == 200 ? "OK" : "Error", responseBody.length, keepAlive ? "" : "Connection: close\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                message.write(responseBody);
+                out.write(message.toByteArray());
+                out.flush();
+                if (!keepAlive) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the incident key of the event, or null if the call is failed
+         */
+        @SuppressWarnings("unchecked")
+        private String accept(String body) {
+            Map<String, Object> event = new Gson().fromJson(body, Map.class);
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            String incidentKey = (String) event.get("incident_key");
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                return null;
+            }
+            AtomicIntegerArray counts = incidents.get(incidentKey);
+            if (counts == null) {
+                AtomicIntegerArray created = new AtomicIntegerArray(2);
+                counts = incidents.putIfAbsent(incidentKey, created);
+                if (counts == null) {
+                    counts = created;
+                }
+            }
+            if ("trigger".equals(event.get("event_type"))) {
+                counts.incrementAndGet(TRIGGERS);
+            } else {
+                counts.incrementAndGet(RESOLUTIONS);
+                if (counts.get(TRIGGERS) == 0) {
+                    synchronized (outOfOrder) {
+                        outOfOrder.add(incidentKey);
+                    }
+                }
+            }
+            return incidentKey;
+        }
+
+        void check(Result result) {
+            for (Map.Entry<String, AtomicIntegerArray> incident : incidents.entrySet()) {
+                int triggers = incident.getValue().get(TRIGGERS);
+                int resolutions = incident.getValue().get(RESOLUTIONS);
+                result.triggers += triggers;
+                result.resolutions += resolutions;
+                if (triggers != 1 || resolutions != 1) {
+                    result.problems.add(String.format("%s triggered %d and resolved %d times", incident.getKey(), triggers, resolutions));
+                }
+            }
+            synchronized (outOfOrder) {
+                for (String incidentKey : outOfOrder) {
+                    result.problems.add(incidentKey + " resolved before it was triggered");
+                }
+            }
+            if (incidents.size() != result.episodes) {
+                result.problems.add(String.format("%d incidents for %d failure episodes", incidents.size(), result.episodes));
+            }
+            if (result.errors > 0) {
+                result.problems.add(result.errors + " notifications failed");
+            }
+        }
+
+        void close() {
+            closeQuietly(server);
+            for (Socket connection : connections) {
+                closeQuietly(connection);
+            }
+            executor.shutdownNow();
+        }
+
+        // A header line without its CRLF, null at the end of the stream
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int length = line.length();
+                    return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+                }
+                line.append((char) c);
+            }
+            return line.length() == 0 ? null : line.toString();
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LoadHarnessTest {
+
+    @Test
+    public void testShortRunAlertsOncePerEpisodeDespiteFailedCalls() throws Exception {
+        LoadHarness.Result result = LoadHarness.run(LoadHarness.Settings.parse(
+                "pipelines=20", "events=2000", "rate=0", "concurrency=4", "latency_ms=1", "error_rate=0.05"));
+
+        Assert.assertTrue(result.correct(), result.toString());
+        Assert.assertTrue(result.events >= 2000);
+        Assert.assertTrue(result.episodes > 0);
+        Assert.assertEquals(result.triggers, result.episodes);
+        Assert.assertTrue(result.p50Nanos <= result.p99Nanos && result.p99Nanos <= result.p999Nanos);
+    }
+}
@@ -0,0 +1,243 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.GsonBuilder;
+import com.squareup.pagerduty.incidents.FakePagerDuty;
+import com.squareup.pagerduty.incidents.PagerDuty;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+public class NotificationDispatcherTest {
+
+    @Test
+    public void testQueuedNotificationsAreDeliveredBeforeShutdown() throws Exception {
+        Config config = ConfigFactory.load("configReferenceTest.conf");
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        PagerDutyHandler handler = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+        handler.clearCurrentIncidents();
+
+        NotificationDispatcher dispatcher = new NotificationDispatcher(handler, 10, 1, NotificationDispatcher.OverflowPolicy.BLOCK);
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure1.json")));
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessagePassed1.json")));
+
+        Assert.assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        Assert.assertEquals(fakePD.openIncidents().size(), 0);
+        Assert.assertEquals(fakePD.closedIncidents().size(), 1);
+        Assert.assertFalse(dispatcher.submit(getTestMessage("/goMessageFailure1.json")));
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        BlockedHandler handler = new BlockedHandler();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(handler, 1, 1, NotificationDispatcher.OverflowPolicy.REJECT);
+
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure1.json")));
+        handler.started.await(5, TimeUnit.SECONDS);
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure2.json")));
+        Assert.assertFalse(dispatcher.submit(getTestMessage("/goMessageFailure3.json")));
+
+        handler.release.countDown();
+        Assert.assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        Assert.assertEquals(handler.handledStates, Arrays.asList("Failed", "Failed"));
+    }
+
+    @Test
+    public void testDropOldestBuildingWhenFull() throws Exception {
+        BlockedHandler handler = new BlockedHandler();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(handler, 2, 1, NotificationDispatcher.OverflowPolicy.DROP_OLDEST_BUILDING);
+
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure1.json")));
+        handler.started.await(5, TimeUnit.SECONDS);
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure1.json", "Building")));
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure2.json")));
+        // Queue is full of one Building and one Failed, the Building one makes room
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessagePassed1.json")));
+        Assert.assertEquals(dispatcher.queuedCount(), 2);
+        // Nothing left to drop
+        Assert.assertFalse(dispatcher.submit(getTestMessage("/goMessageFailure3.json")));
+
+        handler.release.countDown();
+        Assert.assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        Assert.assertEquals(handler.handledStates, Arrays.asList("Failed", "Failed", "Passed"));
+    }
+
+    @Test
+    public void testCallerWaitingForRoomIsRefusedOnShutdown() throws Exception {
+        BlockedHandler handler = new BlockedHandler();
+        final NotificationDispatcher dispatcher = new NotificationDispatcher(handler, 1, 1, NotificationDispatcher.OverflowPolicy.BLOCK);
+
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure1.json")));
+        handler.started.await(5, TimeUnit.SECONDS);
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure2.json")));
+
+        // Waits for room until the shutdown frees it
+        final GoNotificationMessage waiting = getTestMessage("/goMessageFailure3.json");
+        FutureTask<Boolean> submitted = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return dispatcher.submit(waiting);
+            }
+        });
+        new Thread(submitted).start();
+        Thread shutdown = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dispatcher.shutdown(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        shutdown.start();
+        // Waiting for the workers, so no longer accepting notifications
+        while (shutdown.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        handler.release.countDown();
+        Assert.assertFalse(submitted.get(5, TimeUnit.SECONDS));
+        shutdown.join(5000);
+        Assert.assertEquals(handler.handledStates, Arrays.asList("Failed", "Failed"));
+    }
+
+    @Test
+    public void testCallerWaitingForRoomIsRefusedWhenShutdownTimesOut() throws Exception {
+        // Stuck like a call to PagerDuty that doesn't notice the interrupt
+        final CountDownLatch release = new CountDownLatch(1);
+        PagerDutyHandler handler = new PagerDutyHandler(ConfigFactory.load("configReferenceTest.conf")) {
+            @Override
+            public List<String> handle(GoNotificationMessage message) throws Exception {
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                return Collections.emptyList();
+            }
+        };
+        final NotificationDispatcher dispatcher = new NotificationDispatcher(handler, 1, 1, NotificationDispatcher.OverflowPolicy.BLOCK);
+
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure1.json")));
+        while (dispatcher.queuedCount() > 0) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(dispatcher.submit(getTestMessage("/goMessageFailure2.json")));
+
+        final GoNotificationMessage waiting = getTestMessage("/goMessageFailure3.json");
+        FutureTask<Boolean> submitted = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return dispatcher.submit(waiting);
+            }
+        });
+        Thread caller = new Thread(submitted);
+        caller.start();
+        // Waiting for room
+        while (caller.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        Assert.assertFalse(dispatcher.shutdown(200, TimeUnit.MILLISECONDS));
+        try {
+            Assert.assertFalse(submitted.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testNotificationsOfAStageAreHandledInOrderAcrossWorkers() throws Exception {
+        final Map<String, List<Integer>> handledRuns = new ConcurrentHashMap<>();
+        PagerDutyHandler handler = new PagerDutyHandler(ConfigFactory.load("configReferenceTest.conf")) {
+            @Override
+            public List<String> handle(GoNotificationMessage message) throws Exception {
+                handledRuns.get(message.getPipelineName()).add(Integer.valueOf(message.getPipelineCounter()));
+                return Collections.emptyList();
+            }
+        };
+
+        NotificationDispatcher dispatcher = new NotificationDispatcher(handler, 1000, 4, NotificationDispatcher.OverflowPolicy.BLOCK);
+        List<String> fixtures = Arrays.asList("/goMessageFailure1.json", "/goMessageFailure2.json", "/goMessageFailure3.json");
+        for (String fixture : fixtures) {
+            handledRuns.put(getTestMessage(fixture).getPipelineName(), Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        for (int run = 1; run <= 200; run++) {
+            for (String fixture : fixtures) {
+                Assert.assertTrue(dispatcher.submit(getTestMessage(fixture, null, run)));
+            }
+        }
+
+        Assert.assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        for (List<Integer> runs : handledRuns.values()) {
+            Assert.assertEquals(runs.size(), 200);
+            for (int i = 0; i < runs.size(); i++) {
+                Assert.assertEquals(runs.get(i).intValue(), i + 1);
+            }
+        }
+    }
+
+    private static class BlockedHandler extends PagerDutyHandler {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> handledStates = Collections.synchronizedList(new ArrayList<String>());
+
+        BlockedHandler() {
+            super(ConfigFactory.load("configReferenceTest.conf"));
+        }
+
+        @Override
+        public List<String> handle(GoNotificationMessage message) throws Exception {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            handledStates.add(message.getStageState());
+            return Collections.emptyList();
+        }
+    }
+
+    GoNotificationMessage getTestMessage(String filename) throws URISyntaxException, IOException {
+        return getTestMessage(filename, null);
+    }
+
+    GoNotificationMessage getTestMessage(String filename, String state) throws URISyntaxException, IOException {
+        return getTestMessage(filename, state, 0);
+    }
+
+    // A pipeline counter of 0 keeps the fixture's own
+    GoNotificationMessage getTestMessage(String filename, String state, int pipelineCounter) throws URISyntaxException, IOException {
+        Path filePath = Paths.get(getClass().getResource(filename).toURI());
+        String json = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
+        if (state != null) {
+            json = json.replace("\"state\": \"Failed\"", "\"state\": \"" + state + "\"");
+        }
+        if (pipelineCounter > 0) {
+            json = json.replaceFirst("\"counter\": \"\\d+\"", "\"counter\": \"" + pipelineCounter + "\"");
+        }
+        return new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(json, GoNotificationMessage.class);
+    }
+}
@@ -0,0 +1,156 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.GsonBuilder;
+import com.squareup.pagerduty.incidents.FakePagerDuty;
+import com.squareup.pagerduty.incidents.NotifyResult;
+import com.squareup.pagerduty.incidents.PagerDuty;
+import com.squareup.pagerduty.incidents.Resolution;
+import com.squareup.pagerduty.incidents.Trigger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+
+public class NotificationMetricsTest {
+
+    @Test
+    public void testEventsAreCountedPerPipelineAndServiceKey() throws Exception {
+        Config config = ConfigFactory.load("configReferenceTest_Multiple.conf");
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        PagerDutyHandler handler = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+        handler.clearCurrentIncidents();
+
+        handler.handle(getTestMessage("/goMessageFailure1.json"));
+        handler.handle(getTestMessage("/goMessageFailure1.json"));
+        handler.handle(getTestMessage("/goMessageFailure2.json"));
+        handler.handle(getTestMessage("/goMessagePassed1.json"));
+
+        NotificationMetrics metrics = handler.metrics();
+        NotificationMetricsMXBean.EventCounts totals = metrics.getTotals();
+        Assert.assertEquals(totals.getReceived(), 4);
+        Assert.assertEquals(totals.getTriggered(), 2);
+        Assert.assertEquals(totals.getResolved(), 1);
+        Assert.assertEquals(totals.getIgnored(), 1);
+        Assert.assertEquals(totals.getFailed(), 0);
+
+        NotificationMetricsMXBean.EventCounts pipeline1 = metrics.getPipelines().get("Pipeline_1");
+        Assert.assertEquals(pipeline1.getReceived(), 3);
+        Assert.assertEquals(pipeline1.getTriggered(), 1);
+        Assert.assertEquals(pipeline1.getResolved(), 1);
+        Assert.assertEquals(metrics.getServiceKeys().get("****KEY2").getTriggered(), 1);
+        Assert.assertEquals(metrics.getOpenIncidents(), 1);
+
+        Assert.assertEquals(metrics.getDecisionLatency().getCount(), 4);
+        Assert.assertEquals(metrics.getPagerDutyLatency().getCount(), 3);
+    }
+
+    @Test
+    public void testFailedCallsAreCounted() throws Exception {
+        Config config = ConfigFactory.load("configReferenceTest_Multiple.conf");
+        PagerDutyHandler handler = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return new PagerDuty() {
+                    @Override
+                    public NotifyResult notify(Trigger trigger) {
+                        throw new IllegalStateException("PagerDuty is down");
+                    }
+
+                    @Override
+                    public NotifyResult notify(Resolution resolution) {
+                        throw new IllegalStateException("PagerDuty is down");
+                    }
+                };
+            }
+        };
+        handler.clearCurrentIncidents();
+
+        // The trigger is kept for a retry rather than failing the notification
+        handler.handle(getTestMessage("/goMessageFailure1.json"));
+
+        Assert.assertEquals(handler.metrics().getTotals().getFailed(), 1);
+        Assert.assertEquals(handler.metrics().getServiceKeys().get("****KEY1").getFailed(), 1);
+        Assert.assertEquals(handler.metrics().getOpenIncidents(), 1);
+        Assert.assertEquals(handler.deliveries().pendingCount(), 1);
+    }
+
+    @Test
+    public void testMetricsArePublishedOverJmx() throws Exception {
+        NotificationMetrics metrics = new NotificationMetrics(newIncidentStore(), 100);
+        metrics.record(NotificationMetrics.Event.RECEIVED, "Pipeline_1", "APIKEY1");
+        metrics.recordParse(1500);
+        metrics.register();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(NotificationMetrics.OBJECT_NAME);
+            CompositeData totals = (CompositeData) server.getAttribute(name, "Totals");
+            Assert.assertEquals(totals.get("received"), 1L);
+            CompositeData parseLatency = (CompositeData) server.getAttribute(name, "ParseLatency");
+            Assert.assertEquals(parseLatency.get("count"), 1L);
+            Assert.assertEquals(server.getAttribute(name, "OpenIncidents"), 0);
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    public void testOnlyTheMostRecentlyCountedPipelinesAreKept() {
+        NotificationMetrics metrics = new NotificationMetrics(newIncidentStore(), 2);
+        metrics.record(NotificationMetrics.Event.RECEIVED, "Pipeline_1", "APIKEY1");
+        metrics.record(NotificationMetrics.Event.RECEIVED, "Pipeline_2", "APIKEY1");
+        metrics.record(NotificationMetrics.Event.RECEIVED, "Pipeline_1", "APIKEY1");
+        metrics.record(NotificationMetrics.Event.RECEIVED, "Pipeline_3", "APIKEY1");
+
+        Assert.assertEquals(metrics.getPipelines().keySet(), new HashSet<>(Arrays.asList("Pipeline_1", "Pipeline_3")));
+        Assert.assertEquals(metrics.getPipelines().get("Pipeline_1").getReceived(), 2);
+        Assert.assertEquals(metrics.getTotals().getReceived(), 4);
+    }
+
+    @Test
+    public void testHistogramPercentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        NotificationMetricsMXBean.Latency latency = histogram.snapshot();
+        Assert.assertEquals(latency.getCount(), 1000);
+        Assert.assertEquals(latency.getMeanMicros(), 500.5, 0.001);
+        Assert.assertEquals(latency.getMaxMicros(), 1000.0, 0.001);
+        Assert.assertTrue(latency.getP50Micros() >= 500 && latency.getP50Micros() < 1000, "p50 " + latency.getP50Micros());
+        Assert.assertTrue(latency.getP99Micros() >= 990 && latency.getP99Micros() < 1980, "p99 " + latency.getP99Micros());
+    }
+
+    GoNotificationMessage getTestMessage(String filename) throws URISyntaxException, IOException {
+        Path filePath = Paths.get(getClass().getResource(filename).toURI());
+        String json = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
+        return new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(json, GoNotificationMessage.class);
+    }
+
+    private static IncidentStore newIncidentStore() {
+        return new BoundedIncidentStore(IncidentLog.NONE, 100, 0, new BoundedIncidentStore.EvictionListener() {
+            @Override
+            public void evicted(String pipelineStage, String incidentKey, String pipelineName, String serviceKey) {
+            }
+        });
+    }
+}
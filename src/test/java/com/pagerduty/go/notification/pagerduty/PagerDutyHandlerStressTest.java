@@ -0,0 +1,127 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.google.gson.GsonBuilder;
+import com.squareup.pagerduty.incidents.FakePagerDuty;
+import com.squareup.pagerduty.incidents.NotifyResult;
+import com.squareup.pagerduty.incidents.PagerDuty;
+import com.squareup.pagerduty.incidents.Resolution;
+import com.squareup.pagerduty.incidents.Trigger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PagerDutyHandlerStressTest {
+    private static final String[] PIPELINES = {"Pipeline_1", "Pipeline_2", "Pipeline_3", "Pipeline_4"};
+    private static final String[] STAGES = {"Compile", "Test"};
+    private static final int THREADS = 8;
+    private static final int MESSAGES_PER_THREAD = 200;
+
+    @Test
+    public void testInterleavedFailuresAndPassesTriggerAndResolveOncePerEpisode() throws Exception {
+        // Every call has to be made inline for the counts below to be exact, and the same few runs are replayed over and
+        // over, which would otherwise be dropped as stale after the first pass
+        Config config = ConfigFactory.parseString("pagerduty { rate_limit.per_second = 0, reject_stale_events = false }")
+                .withFallback(ConfigFactory.load("configReferenceTest_Multiple.conf"));
+        final CountingPagerDuty countingPD = new CountingPagerDuty();
+        final PagerDutyHandler handler = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return countingPD;
+            }
+        };
+        handler.clearCurrentIncidents();
+
+        String failedTemplate = getTestFile("/goMessageFailure1.json");
+        String passedTemplate = getTestFile("/goMessagePassed1.json");
+        final List<GoNotificationMessage> failures = new ArrayList<>();
+        final List<GoNotificationMessage> passes = new ArrayList<>();
+        for (String pipeline : PIPELINES) {
+            for (String stage : STAGES) {
+                failures.add(message(failedTemplate, pipeline, stage));
+                passes.add(message(passedTemplate, pipeline, stage));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        int stage = random.nextInt(failures.size());
+                        handler.handle(random.nextBoolean() ? failures.get(stage) : passes.get(stage));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        // Close every remaining episode
+        for (GoNotificationMessage passed : passes) {
+            handler.handle(passed);
+        }
+
+        Assert.assertTrue(countingPD.triggers.get() > 0);
+        Assert.assertEquals(countingPD.resolutions.get(), countingPD.triggers.get());
+        Assert.assertEquals(countingPD.fake.closedIncidents().size(), countingPD.triggers.get());
+        Assert.assertTrue(countingPD.fake.openIncidents().isEmpty(), "Incidents left open: " + countingPD.fake.openIncidents());
+    }
+
+    private static class CountingPagerDuty extends PagerDuty {
+        final FakePagerDuty fake = new FakePagerDuty();
+        final AtomicInteger triggers = new AtomicInteger();
+        final AtomicInteger resolutions = new AtomicInteger();
+
+        @Override
+        public NotifyResult notify(Trigger trigger) {
+            triggers.incrementAndGet();
+            pause();
+            return fake.notify(trigger);
+        }
+
+        @Override
+        public NotifyResult notify(Resolution resolution) {
+            resolutions.incrementAndGet();
+            pause();
+            return fake.notify(resolution);
+        }
+
+        // Widen the window between the open incident check and the incident update
+        private void pause() {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private GoNotificationMessage message(String template, String pipeline, String stage) {
+        String json = template.replace("\"Pipeline_1\"", "\"" + pipeline + "\"").replace("\"Compile\"", "\"" + stage + "\"");
+        return new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(json, GoNotificationMessage.class);
+    }
+
+    String getTestFile(String filename) throws Exception {
+        return new String(Files.readAllBytes(Paths.get(getClass().getResource(filename).toURI())), StandardCharsets.UTF_8);
+    }
+}
@@ -5,9 +5,13 @@ import static org.hamcrest.Matchers.*;
 
 import com.google.gson.GsonBuilder;
 import com.squareup.pagerduty.incidents.FakePagerDuty;
+import com.squareup.pagerduty.incidents.NotifyResult;
 import com.squareup.pagerduty.incidents.PagerDuty;
+import com.squareup.pagerduty.incidents.Resolution;
+import com.squareup.pagerduty.incidents.Trigger;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import org.hamcrest.Matcher;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import org.testng.Assert;
@@ -21,7 +25,14 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PagerDutyHandlerTest {
     private String hostname;
@@ -154,11 +165,536 @@ public class PagerDutyHandlerTest {
 
     }
 
+    @Test
+    public void testPagerDutyClientsAreReusedPerApiKey() throws Exception {
+
+        Config config = ConfigFactory.load("configReferenceTest_Multiple.conf");
+        GoNotificationMessage failureMessage = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessageFailure1.json"), GoNotificationMessage.class);
+        GoNotificationMessage passedMessage = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessagePassed1.json"), GoNotificationMessage.class);
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        final AtomicInteger clientsCreated = new AtomicInteger();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                clientsCreated.incrementAndGet();
+                return fakePD;
+            }
+        };
+
+        pagerDutyHandlerWithFakePagerDuty.clearCurrentIncidents();
+        pagerDutyHandlerWithFakePagerDuty.handle(failureMessage);
+        pagerDutyHandlerWithFakePagerDuty.handle(passedMessage);
+
+        assertThat(clientsCreated.get(), comparesEqualTo(1));
+        assertThat(pagerDutyHandlerWithFakePagerDuty.pagerDuty("APIKEY1"), sameInstance((PagerDuty) fakePD));
+        assertThat(clientsCreated.get(), comparesEqualTo(1));
+
+        // Dropping the key from the configuration evicts its client
+        pagerDutyHandlerWithFakePagerDuty.reload(ConfigFactory.load("configReferenceTest.conf"));
+        pagerDutyHandlerWithFakePagerDuty.reload(config);
+        pagerDutyHandlerWithFakePagerDuty.pagerDuty("APIKEY1");
+        assertThat(clientsCreated.get(), comparesEqualTo(2));
+    }
+
+    @Test
+    public void testFlappingStageSendsOnlyTheNetChange() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty.flap_window = 300ms").withFallback(ConfigFactory.load("configReferenceTest.conf"));
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        pagerDutyHandlerWithFakePagerDuty.clearCurrentIncidents();
+        // Failed, Passed, Failed within the window is a single trigger
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 1));
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessagePassed1.json", 2));
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 3));
+        Thread.sleep(600);
+
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(0));
+
+        // Nothing was sent when the window closed, so the pass goes out straight away
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessagePassed1.json", 4));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(1));
+
+        // Failed then Passed within the window is resolved once the window closes
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 5));
+        Thread.sleep(600);
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 6));
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessagePassed1.json", 7));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        Thread.sleep(600);
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(2));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testLateNotificationOfAnEarlierRunIsIgnored() throws Exception {
+
+        Config config = ConfigFactory.load("configReferenceTest.conf");
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        pagerDutyHandlerWithFakePagerDuty.clearCurrentIncidents();
+        // Run 2 passed before the failure of run 1 arrived, which must not open an incident
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 1));
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessagePassed1.json", 2));
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 1));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(1));
+        assertThat(pagerDutyHandlerWithFakePagerDuty.metrics().getTotals().getIgnored(), comparesEqualTo(1L));
+
+        // A later run still opens one
+        pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 3));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testRateLimitedEventsAreNotReported() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY }, "
+                + "rate_limit { per_second = 0.001, burst = 1 }, incident_store.type = memory }").withFallback(ConfigFactory.load());
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        assertThat(pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 1)), empty());
+        // The resolution is over the budget and waits in the outbox
+        assertThat(pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessagePassed1.json", 2)), empty());
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testSlowPagerDutyDoesNotHoldUpStagesSharingTheLock() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { pipeline_api_keys { Pipeline_1 = SLOW_KEY }, "
+                + "routes = [{ pipeline = \"*\", service_key = FAST_KEY }], incident_store.type = memory }").withFallback(ConfigFactory.load());
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        final CountDownLatch calling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                if (!"SLOW_KEY".equals(apiKey)) {
+                    return fakePD;
+                }
+                return new PagerDuty() {
+                    @Override
+                    public NotifyResult notify(Trigger trigger) {
+                        calling.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return fakePD.notify(trigger);
+                    }
+
+                    @Override
+                    public NotifyResult notify(Resolution resolution) {
+                        return fakePD.notify(resolution);
+                    }
+                };
+            }
+        };
+
+        // Another pipeline whose stage shares the lock of the slow one
+        String otherPipeline = null;
+        for (int i = 0; otherPipeline == null; i++) {
+            if (pagerDutyHandlerWithFakePagerDuty.stageLock("Other_" + i + "-Compile") == pagerDutyHandlerWithFakePagerDuty.stageLock("Pipeline_1-Compile")) {
+                otherPipeline = "Other_" + i;
+            }
+        }
+
+        final GoNotificationMessage slowMessage = GoNotificationMessage.parse(getTestFile("/goMessageFailure1.json"));
+        Thread slow = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pagerDutyHandlerWithFakePagerDuty.handle(slowMessage);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        slow.start();
+        Assert.assertTrue(calling.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        assertThat(pagerDutyHandlerWithFakePagerDuty.handle(
+                GoNotificationMessage.parse(getTestFile("/goMessageFailure1.json").replace("Pipeline_1", otherPipeline))), empty());
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(2000L));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+
+        release.countDown();
+        slow.join(5000);
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(2));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testPendingFlapWindowsAreSentOnClose() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty.flap_window = 1h").withFallback(ConfigFactory.load("configReferenceTest.conf"));
+        GoNotificationMessage failureMessage = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessageFailure1.json"), GoNotificationMessage.class);
+        GoNotificationMessage passedMessage = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessagePassed1.json"), GoNotificationMessage.class);
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        pagerDutyHandlerWithFakePagerDuty.clearCurrentIncidents();
+        pagerDutyHandlerWithFakePagerDuty.handle(failureMessage);
+        pagerDutyHandlerWithFakePagerDuty.handle(passedMessage);
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+
+        pagerDutyHandlerWithFakePagerDuty.close();
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(1));
+    }
+
+    @Test
+    public void testDeterministicIncidentKeysNeedNoLocalState() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { incident_key_mode = deterministic, incident_key_namespace = ci }")
+                .withFallback(ConfigFactory.load("configReferenceTest.conf"));
+        GoNotificationMessage failureMessage = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessageFailure1.json"), GoNotificationMessage.class);
+        GoNotificationMessage passedMessage = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessagePassed1.json"), GoNotificationMessage.class);
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler failingServer = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+        PagerDutyHandler passingServer = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        // Repeated failures are deduped by PagerDuty
+        failingServer.handle(failureMessage);
+        failingServer.handle(failureMessage);
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        assertThat(fakePD.openIncidents(), hasKey(failingServer.deterministicIncidentKey(failureMessage)));
+        assertThat(failingServer.deterministicIncidentKey(failureMessage), startsWith("ci/"));
+        assertThat(failingServer.metrics().getOpenIncidents(), comparesEqualTo(0));
+
+        // Another server resolves the incident without knowing about it
+        passingServer.handle(passedMessage);
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(1));
+    }
+
+    @Test
+    public void testIncidentsBeyondTheStoreSizeAreResolved() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty.incident_store { max_size = 1, on_evict = resolve }")
+                .withFallback(ConfigFactory.load("configReferenceTest_Multiple.conf"));
+        GoNotificationMessage failureMessage1 = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessageFailure1.json"), GoNotificationMessage.class);
+        GoNotificationMessage failureMessage2 = new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(getTestFile("/goMessageFailure2.json"), GoNotificationMessage.class);
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        pagerDutyHandlerWithFakePagerDuty.clearCurrentIncidents();
+        pagerDutyHandlerWithFakePagerDuty.handle(failureMessage1);
+        pagerDutyHandlerWithFakePagerDuty.handle(failureMessage2);
+
+        // Only the newest incident fits, the other one is resolved rather than forgotten
+        assertThat(pagerDutyHandlerWithFakePagerDuty.metrics().getOpenIncidents(), comparesEqualTo(1));
+        // The resolution isn't waited for by the notification that evicted it
+        pagerDutyHandlerWithFakePagerDuty.close();
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        assertThat(fakePD.openIncidents(), hasValue(equalTo(getExpectedMessage(failureMessage2))));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(1));
+    }
+
+    @Test
+    public void testFailureStormSharesOneSummaryIncident() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY, Pipeline_2 = APIKEY, Pipeline_3 = APIKEY }, "
+                + "storm.threshold = 2, incident_store.type = memory }").withFallback(ConfigFactory.load());
+        String passed = getTestFile("/goMessagePassed1.json");
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        final AtomicInteger triggers = new AtomicInteger();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return new PagerDuty() {
+                    @Override
+                    public NotifyResult notify(Trigger trigger) {
+                        triggers.incrementAndGet();
+                        return fakePD.notify(trigger);
+                    }
+
+                    @Override
+                    public NotifyResult notify(Resolution resolution) {
+                        return fakePD.notify(resolution);
+                    }
+                };
+            }
+        };
+
+        // The second failure opens the summary and takes over the first one's incident, the third joins it
+        GoNotificationMessage firstFailure = GoNotificationMessage.parse(getTestFile("/goMessageFailure1.json"));
+        pagerDutyHandlerWithFakePagerDuty.handle(firstFailure);
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure2.json")));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        assertThat(fakePD.openIncidents(), hasValue(startsWith("Failed Builds: 2 pipeline stages failing at once")));
+        assertThat(fakePD.closedIncidents(), hasValue(startsWith(getExpectedMessage(firstFailure))));
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure3.json")));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        // The summary is sent again with the stage that joined it
+        assertThat(triggers.get(), comparesEqualTo(3));
+
+        // The summary waits for all of its stages, including the one it took over
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(passed.replace("Pipeline_1", "Pipeline_2")));
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(passed.replace("Pipeline_1", "Pipeline_3")));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(passed));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePD.closedIncidents(), hasValue(startsWith("Failed Builds: 2 pipeline stages")));
+        assertThat(fakePD.closedIncidents().size(), comparesEqualTo(2));
+        assertThat(pagerDutyHandlerWithFakePagerDuty.metrics().getOpenIncidents(), comparesEqualTo(0));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testFailureAfterTheStormWindowPagesOnItsOwn() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY, Pipeline_2 = APIKEY, Pipeline_3 = APIKEY }, "
+                + "storm { threshold = 2, window = 300ms }, incident_store.type = memory }").withFallback(ConfigFactory.load());
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure1.json")));
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure2.json")));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+
+        // The storm's window has passed while its stages are still failing under it
+        Thread.sleep(400);
+        GoNotificationMessage lateFailure = GoNotificationMessage.parse(getTestFile("/goMessageFailure3.json"));
+        pagerDutyHandlerWithFakePagerDuty.handle(lateFailure);
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(2));
+        assertThat(fakePD.openIncidents(), hasValue(startsWith(getExpectedMessage(lateFailure))));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testEvictedStageLeavesItsStorm() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { pipeline_api_keys { Pipeline_1 = APIKEY, Pipeline_2 = APIKEY, Pipeline_3 = APIKEY }, "
+                + "storm.threshold = 2, incident_store { type = memory, max_size = 1, on_evict = resolve } }").withFallback(ConfigFactory.load());
+
+        final FakePagerDuty fakePD = new FakePagerDuty();
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePD;
+            }
+        };
+
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure1.json")));
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure2.json")));
+        // Pipeline_3 joins the storm and evicts Pipeline_2, the summary stays open for Pipeline_3
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessageFailure3.json")));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+        assertThat(fakePD.openIncidents(), hasValue(startsWith("Failed Builds: ")));
+
+        pagerDutyHandlerWithFakePagerDuty.handle(GoNotificationMessage.parse(getTestFile("/goMessagePassed1.json").replace("Pipeline_1", "Pipeline_3")));
+        pagerDutyHandlerWithFakePagerDuty.close();
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePD.closedIncidents(), hasValue(startsWith("Failed Builds: ")));
+    }
+
+    @Test
+    public void testEachServiceOfAPipelineHasItsOwnIncident() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { pipeline_api_keys { Pipeline_1 = [SERVICE_A, SERVICE_B] }, "
+                + "incident_store.type = memory }").withFallback(ConfigFactory.load());
+        final Map<String, FakePagerDuty> fakePDs = new ConcurrentHashMap<>();
+        fakePDs.put("SERVICE_A", new FakePagerDuty());
+        fakePDs.put("SERVICE_B", new FakePagerDuty());
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return fakePDs.get(apiKey);
+            }
+        };
+
+        GoNotificationMessage failureMessage = getTestRun("/goMessageFailure1.json", 1);
+        assertThat(pagerDutyHandlerWithFakePagerDuty.handle(failureMessage), empty());
+        assertThat(fakePDs.get("SERVICE_A").openIncidents().size(), comparesEqualTo(1));
+        assertThat(fakePDs.get("SERVICE_B").openIncidents().size(), comparesEqualTo(1));
+        assertThat(fakePDs.get("SERVICE_A").openIncidents().values().iterator().next(), startsWith(getExpectedMessage(failureMessage)));
+        assertThat(fakePDs.get("SERVICE_A").openIncidents().keySet(), not(equalTo(fakePDs.get("SERVICE_B").openIncidents().keySet())));
+        assertThat(pagerDutyHandlerWithFakePagerDuty.metrics().getOpenIncidents(), comparesEqualTo(2));
+
+        assertThat(pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessagePassed1.json", 2)), empty());
+        assertThat(fakePDs.get("SERVICE_A").openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePDs.get("SERVICE_B").openIncidents().size(), comparesEqualTo(0));
+        assertThat(fakePDs.get("SERVICE_B").closedIncidents().size(), comparesEqualTo(1));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testSingleServiceThatCannotBeNotifiedIsReported() throws Exception {
+
+        Config config = ConfigFactory.load("configReferenceTest.conf");
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                return new PagerDuty() {
+                    @Override
+                    public NotifyResult notify(Trigger trigger) {
+                        throw new IllegalStateException("PagerDuty is down");
+                    }
+
+                    @Override
+                    public NotifyResult notify(Resolution resolution) {
+                        throw new IllegalStateException("PagerDuty is down");
+                    }
+                };
+            }
+        };
+        pagerDutyHandlerWithFakePagerDuty.clearCurrentIncidents();
+
+        List<String> problems = pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 1));
+        assertThat(problems, contains(allOf(containsString("****EY_1"), containsString("it will be retried"),
+                containsString("PagerDuty is down"))));
+        assertThat(pagerDutyHandlerWithFakePagerDuty.deliveries().pendingCount(), comparesEqualTo(1));
+        pagerDutyHandlerWithFakePagerDuty.close();
+    }
+
+    @Test
+    public void testServicesThatCannotBeNotifiedInTimeAreReported() throws Exception {
+
+        Config config = ConfigFactory.parseString("pagerduty { pipeline_api_keys { Pipeline_1 = [SERVICE_A, SERVICE_B, SERVICE_C] }, "
+                + "incident_store.type = memory, delivery.fan_out_timeout = 300ms }").withFallback(ConfigFactory.load());
+        final FakePagerDuty fakePD = new FakePagerDuty();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        PagerDutyHandler pagerDutyHandlerWithFakePagerDuty = new PagerDutyHandler(config) {
+            @Override
+            protected PagerDuty newPagerDuty(String apiKey) {
+                if ("SERVICE_B".equals(apiKey)) {
+                    return new PagerDuty() {
+                        @Override
+                        public NotifyResult notify(Trigger trigger) {
+                            throw new IllegalStateException("PagerDuty is down");
+                        }
+
+                        @Override
+                        public NotifyResult notify(Resolution resolution) {
+                            throw new IllegalStateException("PagerDuty is down");
+                        }
+                    };
+                } else if ("SERVICE_C".equals(apiKey)) {
+                    return new PagerDuty() {
+                        @Override
+                        public NotifyResult notify(Trigger trigger) {
+                            awaitRelease();
+                            return fakePD.notify(trigger);
+                        }
+
+                        @Override
+                        public NotifyResult notify(Resolution resolution) {
+                            awaitRelease();
+                            return fakePD.notify(resolution);
+                        }
+
+                        private void awaitRelease() {
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    };
+                }
+                return fakePD;
+            }
+        };
+
+        // The slow service holds up neither the others nor the notification beyond the timeout
+        long start = System.nanoTime();
+        List<String> problems = pagerDutyHandlerWithFakePagerDuty.handle(getTestRun("/goMessageFailure1.json", 1));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(5000L));
+        List<Matcher<? super String>> expectedProblems = new ArrayList<>();
+        expectedProblems.add(allOf(containsString("****CE_B"), containsString("it will be retried"), containsString("PagerDuty is down")));
+        expectedProblems.add(allOf(containsString("****CE_C"), containsString("still being sent")));
+        assertThat(problems, containsInAnyOrder(expectedProblems));
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(1));
+
+        release.countDown();
+        pagerDutyHandlerWithFakePagerDuty.close();
+        assertThat(fakePD.openIncidents().size(), comparesEqualTo(2));
+    }
+
     String getTestFile(String filename) throws URISyntaxException, IOException {
         Path filePath = Paths.get(getClass().getResource(filename).toURI());
         return new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
     }
 
+    // The fixture as a notification of the given pipeline run
+    GoNotificationMessage getTestRun(String filename, int pipelineCounter) throws URISyntaxException, IOException {
+        String json = getTestFile(filename).replaceFirst("\"counter\": \"\\d+\"", "\"counter\": \"" + pipelineCounter + "\"");
+        return new GsonBuilder().registerTypeAdapter(Date.class, new Iso8601DateAdapter()).create().fromJson(json, GoNotificationMessage.class);
+    }
+
     String getExpectedMessage(GoNotificationMessage message) {
         return String.format("Failed Build: %s build %s on %s", message.fullyQualifiedJobName(), message.getStageState(), hostname);
     }
@@ -0,0 +1,130 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class RouteMatcherTest {
+    private static Route route(String serviceKey) {
+        return new Route(serviceKey, Collections.singleton("Failed"));
+    }
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        RouteMatcher matcher = new RouteMatcher(Arrays.asList(
+                RouteMatcher.Rule.glob("payments-*", null, "Deploy*", route("deploy")),
+                RouteMatcher.Rule.glob("payments-api", null, null, route("exact")),
+                RouteMatcher.Rule.regex("release-[0-9]+", "Release", null, route("release")),
+                RouteMatcher.Rule.glob("pay?ents-*", null, null, route("payments")),
+                RouteMatcher.Rule.glob("*", "Team_*", null, route("teams"))));
+
+        Assert.assertEquals(matcher.match("payments-api", "Other", "DeployProd").serviceKey(), "deploy");
+        Assert.assertEquals(matcher.match("payments-api", "Other", "Compile").serviceKey(), "exact");
+        Assert.assertEquals(matcher.match("payments-web", "Other", "Compile").serviceKey(), "payments");
+        Assert.assertEquals(matcher.match("release-42", "Release", "Compile").serviceKey(), "release");
+        Assert.assertEquals(matcher.match("release-42", "Team_A", "Compile").serviceKey(), "teams");
+        Assert.assertNull(matcher.match("release-42", "Other", "Compile"));
+        Assert.assertNull(matcher.match("release-latest", null, "Compile"));
+    }
+
+    @Test
+    public void testCachedLookupsStillCheckGroupAndStage() {
+        RouteMatcher matcher = new RouteMatcher(Arrays.asList(
+                RouteMatcher.Rule.glob("app-*", null, "Test", route("test")),
+                RouteMatcher.Rule.glob("app-*", null, null, route("any"))));
+
+        Assert.assertEquals(matcher.match("app-1", null, "Test").serviceKey(), "test");
+        Assert.assertEquals(matcher.match("app-1", null, "Build").serviceKey(), "any");
+        Assert.assertEquals(matcher.match("app-1", null, "Test").serviceKey(), "test");
+    }
+
+    @Test
+    public void testOnlyRulesOnThePipelinePrefixAreCandidates() {
+        List<RouteMatcher.Rule> rules = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            rules.add(RouteMatcher.Rule.glob("team-" + i + "-*", null, null, route("key-" + i)));
+        }
+        rules.add(RouteMatcher.Rule.glob("team-*", null, null, route("fallback")));
+        RouteMatcher matcher = new RouteMatcher(rules);
+
+        Assert.assertEquals(matcher.rulesMatchingPipeline("team-1234-api"), new int[]{1234, 10000});
+        Assert.assertEquals(matcher.match("team-1234-api", null, "Build").serviceKey(), "key-1234");
+        Assert.assertEquals(matcher.match("team-x-api", null, "Build").serviceKey(), "fallback");
+    }
+
+    @Test
+    public void testRoutesFromConfig() {
+        Config config = ConfigFactory.parseString(
+                "pagerduty.pipeline_api_keys { \"payments-api\" = \"exact\" }\n"
+                        + "pagerduty.statuses_to_alert = [Failed]\n"
+                        + "pagerduty.routes = [\n"
+                        + "  { pipeline = \"payments-*\", service_key = \"payments\", statuses = [Failed, Cancelled] }\n"
+                        + "  { pipeline_regex = \"release-.*\", group = \"Release\", service_key = \"release\" }\n"
+                        + "]");
+        RoutingSnapshot routing = RoutingSnapshot.fromConfig(config);
+
+        Route exact = routing.route("payments-api", null, "Compile");
+        Assert.assertEquals(exact.serviceKey(), "exact");
+        Assert.assertFalse(exact.alertsOn("Cancelled"));
+        Route glob = routing.route("payments-web", null, "Compile");
+        Assert.assertEquals(glob.serviceKey(), "payments");
+        Assert.assertTrue(glob.alertsOn("Cancelled"));
+        Assert.assertTrue(routing.route("release-1", "Release", "Compile").alertsOn("Failed"));
+        Assert.assertEquals(routing.serviceKeys(), new HashSet<>(Arrays.asList("exact", "payments", "release")));
+    }
+
+    @Test(expectedExceptions = ConfigException.class)
+    public void testRouteWithoutPipelinePatternIsRejected() {
+        RoutingSnapshot.fromConfig(ConfigFactory.parseString(
+                "pagerduty.pipeline_api_keys {}\n"
+                        + "pagerduty.statuses_to_alert = [Failed]\n"
+                        + "pagerduty.routes = [ { stage = \"Deploy\", service_key = \"deploy\" } ]"));
+    }
+
+    @Test
+    public void testPipelineNamesWithDotsFromConfig() {
+        Config config = ConfigFactory.parseString(
+                "pagerduty.pipeline_api_keys { my.pipeline = DOTTED, \"quoted.pipeline\" = QUOTED, \"Pipeline 2\" = SPACED, "
+                        + "other.pipeline = [FIRST, SECOND] }\n"
+                        + "pagerduty.statuses_to_alert = [Failed]\n"
+                        + "pagerduty.routes = []");
+        RoutingSnapshot routing = RoutingSnapshot.fromConfig(config);
+
+        Assert.assertEquals(routing.route("my.pipeline", null, "Compile").serviceKey(), "DOTTED");
+        Assert.assertEquals(routing.route("quoted.pipeline", null, "Compile").serviceKey(), "QUOTED");
+        Assert.assertEquals(routing.route("Pipeline 2", null, "Compile").serviceKey(), "SPACED");
+        Assert.assertEquals(routing.route("other.pipeline", null, "Compile").serviceKeys(), Arrays.asList("FIRST", "SECOND"));
+        Assert.assertNull(routing.route("my", null, "Compile"));
+    }
+
+    @Test
+    public void testServiceKeyListsFromConfig() {
+        Config config = ConfigFactory.parseString(
+                "pagerduty.pipeline_api_keys { \"payments-api\" = [\"payments\", \"platform\", \"payments\"] }\n"
+                        + "pagerduty.statuses_to_alert = [Failed]\n"
+                        + "pagerduty.routes = [ { pipeline = \"release-*\", service_key = [\"release\", \"platform\"] } ]");
+        RoutingSnapshot routing = RoutingSnapshot.fromConfig(config);
+
+        Route exact = routing.route("payments-api", null, "Compile");
+        Assert.assertEquals(exact.serviceKeys(), Arrays.asList("payments", "platform"));
+        Assert.assertEquals(exact.serviceKey(), "payments");
+        Assert.assertEquals(routing.route("release-1", null, "Compile").serviceKeys(), Arrays.asList("release", "platform"));
+        Assert.assertEquals(routing.serviceKeys(), new HashSet<>(Arrays.asList("payments", "platform", "release")));
+    }
+
+    @Test(expectedExceptions = ConfigException.class)
+    public void testEmptyServiceKeyListIsRejected() {
+        RoutingSnapshot.fromConfig(ConfigFactory.parseString(
+                "pagerduty.pipeline_api_keys { \"payments-api\" = [] }\n"
+                        + "pagerduty.statuses_to_alert = [Failed]\n"
+                        + "pagerduty.routes = []"));
+    }
+}
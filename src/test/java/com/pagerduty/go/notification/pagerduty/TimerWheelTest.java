@@ -0,0 +1,42 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testTasksRunAfterTheirDelay() throws Exception {
+        // A small wheel, so most tasks wait out several rounds
+        TimerWheel wheel = new TimerWheel("test-wheel", 1, TimeUnit.MILLISECONDS, 16);
+        int tasks = 20000;
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final AtomicInteger early = new AtomicInteger();
+        Random random = new Random(1);
+        try {
+            for (int i = 0; i < tasks; i++) {
+                final long delayMs = random.nextInt(200);
+                final long scheduledAt = System.nanoTime();
+                wheel.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (System.nanoTime() - scheduledAt < TimeUnit.MILLISECONDS.toNanos(delayMs)) {
+                            early.incrementAndGet();
+                        }
+                        done.countDown();
+                    }
+                }, delayMs, TimeUnit.MILLISECONDS);
+            }
+
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS), done.getCount() + " tasks never ran");
+            Assert.assertEquals(early.get(), 0);
+        } finally {
+            wheel.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.pagerduty.go.notification.pagerduty;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.Closeable;
+
+public class TraceEventTest {
+
+    @Test
+    public void testNothingIsRecordedWithoutARecording() {
+        for (TraceEvent type : TraceEvent.values()) {
+            TraceEvent.Span span = type.begin();
+            Assert.assertFalse(span.isRecording());
+            // Harmless either way
+            span.commit("Pipeline_1/1/Compile/1");
+        }
+    }
+
+    @Test
+    public void testEventsAreRecordedWhileARecordingRuns() throws Exception {
+        Class<?> recordingClass;
+        try {
+            recordingClass = Class.forName("jdk.jfr.Recording");
+        } catch (ClassNotFoundException e) {
+            throw new SkipException("Flight recording isn't available on this JVM");
+        }
+
+        // Built for Java 7, so the recording is driven reflectively too
+        Object recording = recordingClass.newInstance();
+        recordingClass.getMethod("start").invoke(recording);
+        try {
+            TraceEvent.Span span = TraceEvent.STORE_LOOKUP.begin();
+            Assert.assertTrue(span.isRecording());
+            span.commit("Pipeline_1/1/Compile/1", "Pipeline_1-Compile", null);
+        } finally {
+            ((Closeable) recording).close();
+        }
+        Assert.assertFalse(TraceEvent.STORE_LOOKUP.begin().isRecording());
+    }
+}